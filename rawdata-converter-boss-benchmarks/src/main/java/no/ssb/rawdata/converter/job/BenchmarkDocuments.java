@@ -0,0 +1,21 @@
+package no.ssb.rawdata.converter.job;
+
+import java.util.StringJoiner;
+
+final class BenchmarkDocuments {
+
+    private BenchmarkDocuments() {
+    }
+
+    /**
+     * A job document with a pseudo config of the given number of rules, as stored in the document column.
+     */
+    static String json(int ruleCount) {
+        StringJoiner rules = new StringJoiner(",", "[", "]");
+        for (int i = 0; i < ruleCount; i++) {
+            rules.add("{\"name\":\"rule-%d\",\"pattern\":\"**/path/to/field%d\",\"func\":\"fpe-fnr(secret1)\"}".formatted(i, i));
+        }
+        return "{\"storageRoot\":\"gs://bucket\",\"storagePath\":\"/path/to/data\",\"storageVersion\":42,\"topic\":\"data\","
+                + "\"initialPosition\":\"FIRST\",\"pseudoConfig\":{\"debug\":false,\"rules\":%s}}".formatted(rules);
+    }
+}
@@ -0,0 +1,107 @@
+package no.ssb.rawdata.converter.job;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.huxhorn.sulky.ulid.ULID;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * {@link EmbeddedJobRepository} with its log in a temporary directory, by default under java.io.tmpdir. Set
+ * -Dboss.bench.directory to measure on another disk, since the sync of the log is most of the cost of a change.
+ * Compare with {@link JobRepositoryBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@Threads(4)
+@State(Scope.Benchmark)
+public class EmbeddedJobRepositoryBenchmark {
+
+    @Param({"100000"})
+    public int queueDepth;
+
+    private Path directory;
+    private EmbeddedJobRepository repository;
+    private Job.Document document;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Path parent = Path.of(System.getProperty("boss.bench.directory", System.getProperty("java.io.tmpdir")));
+        directory = Files.createTempDirectory(parent, "boss-bench-");
+        repository = new EmbeddedJobRepository(new SimpleMeterRegistry(), new JobAvailability(), new ActiveJobIndex(true, Duration.ofSeconds(30)),
+                directory.toString(), Duration.ofMinutes(10), Duration.ofMinutes(1));
+        document = new ObjectMapper().readValue(BenchmarkDocuments.json(10), Job.Document.class);
+    }
+
+    @Setup(Level.Iteration)
+    public void fillQueue() {
+        repository.deleteAllJobs();
+        List<Job.Submission> submissions = new ArrayList<>(queueDepth);
+        for (int i = 0; i < queueDepth; i++) {
+            Job.Submission submission = new Job.Submission();
+            submission.setSource("source-" + (i % 10));
+            submission.setDocument(document);
+            submissions.add(submission);
+        }
+        repository.createJobs(submissions);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repository.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public int createJob() {
+        return repository.createJob(new ULID().nextULID(), "source-0", document);
+    }
+
+    @Benchmark
+    public Object findAvailableJob() {
+        return repository.findAvailableRawJobs(null, "benchmark", 1);
+    }
+
+    @Benchmark
+    public Object findAvailableJobFromSource() {
+        return repository.findAvailableRawJobs("source-0", "benchmark", 1);
+    }
+
+    @Benchmark
+    public int findAvailableJobAndJobDone() {
+        List<RawJob> jobs = repository.findAvailableRawJobs(null, "benchmark", 1);
+        if (jobs.isEmpty()) {
+            return 0;
+        }
+        return repository.jobDone(jobs.get(0).getId(), jobs.get(0).getSource());
+    }
+}
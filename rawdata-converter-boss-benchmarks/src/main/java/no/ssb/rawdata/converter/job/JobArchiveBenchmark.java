@@ -0,0 +1,131 @@
+package no.ssb.rawdata.converter.job;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Claim latency with historyDepth done jobs in the database, left in the job table or moved to job_archive by
+ * {@link PostgresJobRepository#archiveDoneJobs}. Run with {@code -p historyDepth=10000000} to see the effect at 10M done jobs
+ * (filling the history takes a few minutes). Truncates the job tables, like {@link JobRepositoryBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class JobArchiveBenchmark {
+
+    @Param({"0", "1000000"})
+    public int historyDepth;
+
+    @Param({"false", "true"})
+    public boolean archived;
+
+    @Param({"10000"})
+    public int queueDepth;
+
+    private HikariDataSource dataSource;
+    private PostgresJobRepository repository;
+    private Job.Document document;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(System.getProperty("boss.bench.url", "jdbc:postgresql://localhost:5432/rawdata_converter_jobs"));
+        config.setUsername(System.getProperty("boss.bench.username", "boss"));
+        config.setPassword(System.getProperty("boss.bench.password", "bossman"));
+        dataSource = new HikariDataSource(config);
+        Flyway.configure().dataSource(dataSource).load().migrate();
+        repository = new PostgresJobRepository(dataSource, new SimpleMeterRegistry(), Duration.ofMinutes(10), 1000, Duration.ofMinutes(1), 500, 1000);
+        document = new ObjectMapper().readValue(BenchmarkDocuments.json(10), Job.Document.class);
+
+        repository.deleteAllJobs();
+        fillHistory();
+        if (archived) {
+            int moved;
+            do {
+                moved = repository.archiveDoneJobs(Duration.ZERO, 100_000);
+            } while (moved > 0);
+        }
+        execute("VACUUM ANALYZE job");
+    }
+
+    @Setup(Level.Iteration)
+    public void fillQueue() throws SQLException {
+        execute("DELETE FROM job WHERE status <> 'DONE'");
+        List<Job.Submission> submissions = new ArrayList<>(queueDepth);
+        for (int i = 0; i < queueDepth; i++) {
+            Job.Submission submission = new Job.Submission();
+            submission.setSource("source-" + (i % 10));
+            submission.setDocument(document);
+            submissions.add(submission);
+        }
+        repository.createJobs(submissions);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        repository.deleteAllJobs();
+        dataSource.close();
+    }
+
+    @Benchmark
+    public Object findAvailableJob() {
+        return repository.findAvailableRawJobs(null, "benchmark", 1);
+    }
+
+    @Benchmark
+    public Object findAvailableJobFromSource() {
+        return repository.findAvailableRawJobs("source-0", "benchmark", 1);
+    }
+
+    /**
+     * Done jobs with ids that sort before the available ones, created and done a day ago.
+     */
+    private void fillHistory() throws SQLException {
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement ps = con.prepareStatement("""
+                    INSERT INTO job (id, status, source, document, created_at, claimed_at, done_at, claim_rank)
+                    SELECT lpad(i::text, 26, '0'), 'DONE', 'source-' || (i % 10), ?::jsonb,
+                           now() - interval '1 day', now() - interval '1 day', now() - interval '1 day', now() - interval '1 day'
+                    FROM generate_series(1, ?) AS i
+                    """);
+            ps.setString(1, BenchmarkDocuments.json(10));
+            ps.setInt(2, historyDepth);
+            ps.executeUpdate();
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection con = dataSource.getConnection()) {
+            Statement stmt = con.createStatement();
+            stmt.execute(sql);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package no.ssb.rawdata.converter.job;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.huxhorn.sulky.ulid.ULID;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON (de)serialization of job documents, and writing a claimed job with its document mapped or passed through.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class JobDocumentBenchmark {
+
+    @Param({"0", "10", "100", "1000"})
+    public int ruleCount;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private String json;
+    private Job.Document document;
+    private RawJob rawJob;
+
+    @Setup
+    public void setup() throws Exception {
+        json = BenchmarkDocuments.json(ruleCount);
+        document = objectMapper.readValue(json, Job.Document.class);
+        rawJob = new RawJob(new ULID().nextULID(), Job.Status.ACTIVE, "freg", json);
+    }
+
+    @Benchmark
+    public Object readDocument() throws Exception {
+        return objectMapper.readValue(json, Job.Document.class);
+    }
+
+    @Benchmark
+    public String writeDocument() throws Exception {
+        return objectMapper.writeValueAsString(document);
+    }
+
+    @Benchmark
+    public Object roundTripDocument() throws Exception {
+        return objectMapper.readValue(objectMapper.writeValueAsString(document), Job.Document.class);
+    }
+
+    @Benchmark
+    public byte[] writeClaimedJobMapped() throws Exception {
+        return objectMapper.writeValueAsBytes(rawJob.toJob(objectMapper));
+    }
+
+    @Benchmark
+    public byte[] writeClaimedJobPassthrough() throws Exception {
+        return objectMapper.writeValueAsBytes(rawJob);
+    }
+}
@@ -0,0 +1,56 @@
+package no.ssb.rawdata.converter.job;
+
+import de.huxhorn.sulky.ulid.ULID;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ulid validation done by {@link Job#setId(String)}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Thread)
+public class JobIdBenchmark {
+
+    private String validId;
+
+    @Setup
+    public void setup() {
+        validId = new ULID().nextULID();
+    }
+
+    @Benchmark
+    public Object setValidId() {
+        Job job = new Job();
+        job.setId(validId);
+        return job;
+    }
+
+    @Benchmark
+    public Object setInvalidId() {
+        try {
+            new Job().setId("not-an-ulid");
+            throw new IllegalStateException("Expected invalid id to be rejected");
+        } catch (IllegalArgumentException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public String generateId() {
+        return new ULID().nextULID();
+    }
+}
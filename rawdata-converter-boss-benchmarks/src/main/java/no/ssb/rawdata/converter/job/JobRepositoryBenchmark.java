@@ -0,0 +1,102 @@
+package no.ssb.rawdata.converter.job;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import de.huxhorn.sulky.ulid.ULID;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PostgresJobRepository} against a local Postgres, by default the one started by {@code make start-db}. Override with
+ * -Dboss.bench.url, -Dboss.bench.username and -Dboss.bench.password. Every iteration starts with a truncated job table
+ * filled with queueDepth available jobs, so don't point it at a database you care about.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class JobRepositoryBenchmark {
+
+    @Param({"100000"})
+    public int queueDepth;
+
+    private HikariDataSource dataSource;
+    private PostgresJobRepository repository;
+    private Job.Document document;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(System.getProperty("boss.bench.url", "jdbc:postgresql://localhost:5432/rawdata_converter_jobs"));
+        config.setUsername(System.getProperty("boss.bench.username", "boss"));
+        config.setPassword(System.getProperty("boss.bench.password", "bossman"));
+        dataSource = new HikariDataSource(config);
+        Flyway.configure().dataSource(dataSource).load().migrate();
+        repository = new PostgresJobRepository(dataSource, new SimpleMeterRegistry(), Duration.ofMinutes(10), 1000, Duration.ofMinutes(1), 500, 1000);
+        document = new ObjectMapper().readValue(BenchmarkDocuments.json(10), Job.Document.class);
+    }
+
+    @Setup(Level.Iteration)
+    public void fillQueue() {
+        repository.deleteAllJobs();
+        List<Job.Submission> submissions = new ArrayList<>(queueDepth);
+        for (int i = 0; i < queueDepth; i++) {
+            Job.Submission submission = new Job.Submission();
+            submission.setSource("source-" + (i % 10));
+            submission.setDocument(document);
+            submissions.add(submission);
+        }
+        repository.createJobs(submissions);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        repository.deleteAllJobs();
+        dataSource.close();
+    }
+
+    @Benchmark
+    public int createJob() {
+        return repository.createJob(new ULID().nextULID(), "source-0", document);
+    }
+
+    @Benchmark
+    public Object findAvailableJob() {
+        return repository.findAvailableRawJobs(null, "benchmark", 1);
+    }
+
+    @Benchmark
+    public Object findAvailableJobFromSource() {
+        return repository.findAvailableRawJobs("source-0", "benchmark", 1);
+    }
+
+    @Benchmark
+    public int findAvailableJobAndJobDone() {
+        List<RawJob> jobs = repository.findAvailableRawJobs(null, "benchmark", 1);
+        if (jobs.isEmpty()) {
+            return 0;
+        }
+        return repository.jobDone(jobs.get(0).getId(), jobs.get(0).getSource());
+    }
+}
@@ -0,0 +1,63 @@
+package no.ssb.rawdata.converter.job;
+
+import de.huxhorn.sulky.ulid.ULID;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping a job row to a {@link Job} or a {@link RawJob}, without the database: the row is an in-memory
+ * {@link ResultSet} that only supports getString.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class JobRowMappingBenchmark {
+
+    @Param({"0", "10", "100", "1000"})
+    public int ruleCount;
+
+    private ResultSet row;
+
+    @Setup
+    public void setup() {
+        Map<String, String> columns = Map.of(
+                "id", new ULID().nextULID(),
+                "status", "ACTIVE",
+                "source", "freg",
+                "document", BenchmarkDocuments.json(ruleCount)
+        );
+        row = (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+            if (method.getName().equals("getString") && args[0] instanceof String) {
+                return columns.get(args[0]);
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    @Benchmark
+    public Object toJob() throws Exception {
+        return PostgresJobRepository.toJob(row);
+    }
+
+    @Benchmark
+    public Object toRawJob() throws Exception {
+        return PostgresJobRepository.toRawJob(row);
+    }
+}
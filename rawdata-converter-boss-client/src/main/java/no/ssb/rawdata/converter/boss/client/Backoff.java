@@ -0,0 +1,31 @@
+package no.ssb.rawdata.converter.boss.client;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter: each delay is drawn between half and all of a ceiling that doubles, from min up to
+ * max, every time a delay is taken. The jitter keeps converters that failed at the same time from retrying in step.
+ */
+class Backoff {
+
+    private final long minMillis;
+    private final long maxMillis;
+    private long ceilingMillis;
+
+    Backoff(Duration min, Duration max) {
+        this.minMillis = Math.max(1, min.toMillis());
+        this.maxMillis = Math.max(minMillis, max.toMillis());
+        this.ceilingMillis = minMillis;
+    }
+
+    synchronized Duration next() {
+        long delay = ceilingMillis / 2 + ThreadLocalRandom.current().nextLong(ceilingMillis / 2 + 1);
+        ceilingMillis = Math.min(maxMillis, ceilingMillis * 2);
+        return Duration.ofMillis(delay);
+    }
+
+    synchronized void reset() {
+        ceilingMillis = minMillis;
+    }
+}
@@ -0,0 +1,296 @@
+package no.ssb.rawdata.converter.boss.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Client for the job API of the boss, doing the converter interactions described in doc/design.md:
+ * <ol>
+ *     <li>{@link #takeJob(String)} long-polls for an available job, and backs off when the boss answers right away
+ *     that there is none, or fails</li>
+ *     <li>{@link #hold(BossJob, Consumer)} adds the job to the jobs that are checked on together every check interval,
+ *     which also renews their leases. The consumer is called if a job is no longer active, and the converter should
+ *     stop working on it</li>
+ *     <li>{@link #reportProgress(BossJob, String)} reports the position the converter has committed, which a later
+ *     claim of the job resumes from</li>
+ *     <li>{@link #jobDone(BossJob)} tells the boss the job is done, retrying if the boss can't be reached</li>
+ * </ol>
+ * All requests share one {@link HttpClient}, and thereby its pool of connections. Close the client to stop checking
+ * on held jobs.
+ */
+@Slf4j
+public class BossClient implements AutoCloseable {
+
+    private final BossClientConfig config;
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, HeldJob> heldJobs = new ConcurrentHashMap<>();
+
+    public BossClient(BossClientConfig config) {
+        this.config = config;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(config.getConnectTimeout())
+                .build();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "boss-client-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = config.getCheckInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::checkHeldJobs, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Claims an available job from the source, or from any source if source is null, waiting up to the configured
+     * wait for one to become available. Returns empty if there was none, or if the boss is too busy to make claims.
+     */
+    public Optional<BossJob> findAvailableJob(String source) throws InterruptedException {
+        return findAvailableJob(source, null);
+    }
+
+    /**
+     * Like {@link #findAvailableJob(String)}, but prefers a job with the storage root and topic of the previous job,
+     * if any, so that what the converter has cached for them can be reused.
+     */
+    public Optional<BossJob> findAvailableJob(String source, BossJob previous) throws InterruptedException {
+        String path = source == null ? "/job/available" : "/job/available/" + encode(source);
+        StringBuilder query = new StringBuilder("?wait=%dms".formatted(config.getWait().toMillis()));
+        if (config.getClaimant() != null) {
+            query.append("&claimant=").append(encode(config.getClaimant()));
+        }
+        if (previous != null && previous.getDocument() != null) {
+            for (String field : List.of("storageRoot", "topic")) {
+                JsonNode value = previous.getDocument().get(field);
+                if (value != null && value.isTextual()) {
+                    query.append('&').append(field).append('=').append(encode(value.asText()));
+                }
+            }
+        }
+        HttpRequest request = HttpRequest.newBuilder(uri(path + query))
+                .GET()
+                .timeout(config.getRequestTimeout().plus(config.getWait()))
+                .build();
+        HttpResponse<byte[]> response = send(request);
+        return switch (response.statusCode()) {
+            case 200 -> Optional.of(readJob(response.body()));
+            case 404, 503 -> Optional.empty();
+            default -> throw new RuntimeException("Unexpected response from boss: %d %s".formatted(response.statusCode(), request.uri()));
+        };
+    }
+
+    /**
+     * Returns the next available job from the source, or from any source if source is null, waiting for as long as
+     * it takes. Long-polls, and backs off when the boss answers sooner than half the wait without a job (i.e. the
+     * boss doesn't hold the request) or fails.
+     */
+    public BossJob takeJob(String source) throws InterruptedException {
+        return takeJob(source, null);
+    }
+
+    /**
+     * Like {@link #takeJob(String)}, but prefers a job like the previous one, see {@link #findAvailableJob(String, BossJob)}.
+     */
+    public BossJob takeJob(String source, BossJob previous) throws InterruptedException {
+        Backoff backoff = new Backoff(config.getMinBackoff(), config.getMaxBackoff());
+        long halfWaitNanos = config.getWait().toNanos() / 2;
+        while (true) {
+            long start = System.nanoTime();
+            try {
+                Optional<BossJob> job = findAvailableJob(source, previous);
+                if (job.isPresent()) {
+                    return job.get();
+                }
+                if (halfWaitNanos > 0 && System.nanoTime() - start >= halfWaitNanos) {
+                    backoff.reset(); //the long-poll did the waiting
+                    continue;
+                }
+            } catch (RuntimeException e) {
+                log.warn("Failed to get an available job from boss, source: {}", source, e);
+            }
+            Thread.sleep(backoff.next().toMillis());
+        }
+    }
+
+    /**
+     * Checks on the job, and renews its lease, every check interval until the job is done or released. If the job
+     * turns out to no longer be active, it's released and passed to onLost.
+     */
+    public void hold(BossJob job, Consumer<BossJob> onLost) {
+        heldJobs.put(job.getId(), new HeldJob(job, onLost));
+    }
+
+    /**
+     * Stops checking on the job.
+     */
+    public void release(BossJob job) {
+        heldJobs.remove(job.getId());
+    }
+
+    public List<BossJob> heldJobs() {
+        List<BossJob> jobs = new ArrayList<>();
+        heldJobs.values().forEach(held -> jobs.add(held.job));
+        return jobs;
+    }
+
+    /**
+     * Reports the position the converter has committed its output up to, so that the job resumes from there if it's
+     * claimed again. Failures are logged and not retried, since the next report supersedes this one.
+     */
+    public void reportProgress(BossJob job, String position) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(uri("/job/progress/%s/%s".formatted(encode(job.getSource()), encode(job.getId()))))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(Map.of("position", position))))
+                    .timeout(config.getRequestTimeout())
+                    .build();
+            HttpResponse<byte[]> response = send(request);
+            if (response.statusCode() != 202) {
+                log.warn("Unexpected response from boss on progress report: {} {}", response.statusCode(), request.uri());
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to report progress, id: {}, position: {}", job.getId(), position, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Releases the job and tells the boss it's done. Retried with backoff, up to the configured number of attempts,
+     * if the boss can't be reached or fails, which is safe since marking a job as done again changes nothing. Returns
+     * false if the boss doesn't know the job.
+     */
+    public boolean jobDone(BossJob job) throws InterruptedException {
+        release(job);
+        HttpRequest request = HttpRequest.newBuilder(uri("/job/done/%s/%s".formatted(encode(job.getSource()), encode(job.getId()))))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .timeout(config.getRequestTimeout())
+                .build();
+        Backoff backoff = new Backoff(config.getMinBackoff(), config.getMaxBackoff());
+        for (int attempt = 1; ; attempt++) {
+            try {
+                HttpResponse<byte[]> response = send(request);
+                if (response.statusCode() == 200) {
+                    return true;
+                }
+                if (response.statusCode() == 404) {
+                    log.warn("Boss doesn't know job, id: {}, source: {}", job.getId(), job.getSource());
+                    return false;
+                }
+                if (attempt >= config.getDoneAttempts()) {
+                    throw new RuntimeException("Unexpected response from boss: %d %s".formatted(response.statusCode(), request.uri()));
+                }
+            } catch (RuntimeException e) {
+                if (attempt >= config.getDoneAttempts()) {
+                    throw new RuntimeException("Failed to mark job as done after %d attempts, id: %s, source: %s".formatted(attempt, job.getId(), job.getSource()), e);
+                }
+                log.warn("Failed to mark job as done, attempt {} of {}, id: {}", attempt, config.getDoneAttempts(), job.getId(), e);
+            }
+            Thread.sleep(backoff.next().toMillis());
+        }
+    }
+
+    /**
+     * Checks on all held jobs at once, with one request. Jobs that couldn't be checked are kept, and checked again next
+     * time.
+     */
+    void checkHeldJobs() {
+        List<HeldJob> held = new ArrayList<>(heldJobs.values());
+        if (held.isEmpty()) {
+            return;
+        }
+        try {
+            ArrayNode keys = objectMapper.createArrayNode();
+            held.forEach(h -> keys.addObject().put("id", h.job.getId()).put("source", h.job.getSource()));
+            HttpRequest request = HttpRequest.newBuilder(uri("/job/active/check"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(keys)))
+                    .timeout(config.getRequestTimeout())
+                    .build();
+            HttpResponse<byte[]> response = send(request);
+            if (response.statusCode() != 200) {
+                throw new RuntimeException("Unexpected response from boss: %d %s".formatted(response.statusCode(), request.uri()));
+            }
+            JsonNode results = objectMapper.readTree(response.body());
+            for (int i = 0; i < held.size() && i < results.size(); i++) {
+                if (!results.get(i).path("active").asBoolean(true)) {
+                    lost(held.get(i));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to check on {} held jobs", held.size(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void lost(HeldJob held) {
+        if (heldJobs.remove(held.job.getId(), held)) {
+            log.info("Job is no longer active, id: {}, source: {}", held.job.getId(), held.job.getSource());
+            try {
+                held.onLost.accept(held.job);
+            } catch (RuntimeException e) {
+                log.warn("Failure in handling of lost job, id: {}", held.job.getId(), e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private HttpResponse<byte[]> send(HttpRequest request) throws InterruptedException {
+        try {
+            return httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to send request to boss: %s".formatted(request.uri()), e);
+        }
+    }
+
+    private BossJob readJob(byte[] body) {
+        try {
+            return objectMapper.readValue(body, BossJob.class);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read job from boss", e);
+        }
+    }
+
+    private URI uri(String pathAndQuery) {
+        return config.getBaseUri().resolve(pathAndQuery);
+    }
+
+    private static String encode(String s) {
+        return URLEncoder.encode(s, StandardCharsets.UTF_8);
+    }
+
+    private static final class HeldJob {
+        private final BossJob job;
+        private final Consumer<BossJob> onLost;
+
+        private HeldJob(BossJob job, Consumer<BossJob> onLost) {
+            this.job = job;
+            this.onLost = onLost;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package no.ssb.rawdata.converter.boss.client;
+
+import lombok.Data;
+
+import java.net.URI;
+import java.time.Duration;
+
+@Data
+public class BossClientConfig {
+
+    /**
+     * Where the boss is, e.g. http://rawdata-converter-boss:8080
+     */
+    private URI baseUri;
+
+    /**
+     * Identifies this converter in the boss. The boss uses the remote address if not set.
+     */
+    private String claimant;
+
+    /**
+     * How long the boss holds a request for an available job before answering that there is none (long-poll).
+     */
+    private Duration wait = Duration.ofSeconds(30);
+
+    /**
+     * The first delay before asking again when the boss answers without waiting, or fails. Doubled for every such
+     * answer in a row, up to the max backoff.
+     */
+    private Duration minBackoff = Duration.ofSeconds(1);
+
+    private Duration maxBackoff = Duration.ofMinutes(1);
+
+    /**
+     * How often the jobs held by this client are checked on, which also renews their leases. Must be well within the
+     * boss' boss.job.lease-duration (default 10m).
+     */
+    private Duration checkInterval = Duration.ofMinutes(1);
+
+    /**
+     * How many times to try to tell the boss a job is done before giving up.
+     */
+    private int doneAttempts = 5;
+
+    private Duration connectTimeout = Duration.ofSeconds(10);
+
+    /**
+     * Timeout of requests other than the long-polls, which get the wait on top.
+     */
+    private Duration requestTimeout = Duration.ofSeconds(30);
+
+    public BossClientConfig() {
+    }
+
+    public BossClientConfig(URI baseUri) {
+        this.baseUri = baseUri;
+    }
+}
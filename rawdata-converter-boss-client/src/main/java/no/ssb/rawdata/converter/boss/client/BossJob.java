@@ -0,0 +1,20 @@
+package no.ssb.rawdata.converter.boss.client;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Data;
+
+/**
+ * A job claimed from the boss. The document is kept as JSON, so the client doesn't need to know its schema.
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class BossJob {
+    private String id;
+    private String status;
+    private String source;
+    private JsonNode document;
+
+    public BossJob() {
+    }
+}
@@ -0,0 +1,24 @@
+package no.ssb.rawdata.converter.boss.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BackoffSpec {
+
+    @Test
+    void thatDelaysDoubleUpToMaxAndStartOverOnReset() {
+        Backoff backoff = new Backoff(Duration.ofMillis(100), Duration.ofMillis(800));
+
+        assertThat(backoff.next()).isBetween(Duration.ofMillis(50), Duration.ofMillis(100));
+        assertThat(backoff.next()).isBetween(Duration.ofMillis(100), Duration.ofMillis(200));
+        assertThat(backoff.next()).isBetween(Duration.ofMillis(200), Duration.ofMillis(400));
+        assertThat(backoff.next()).isBetween(Duration.ofMillis(400), Duration.ofMillis(800));
+        assertThat(backoff.next()).isBetween(Duration.ofMillis(400), Duration.ofMillis(800));
+
+        backoff.reset();
+        assertThat(backoff.next()).isBetween(Duration.ofMillis(50), Duration.ofMillis(100));
+    }
+}
@@ -0,0 +1,164 @@
+package no.ssb.rawdata.converter.boss.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micronaut.context.ApplicationContext;
+import io.micronaut.runtime.server.EmbeddedServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs against a boss with the embedded job repository, so no database is needed.
+ */
+class BossClientSpec {
+
+    @TempDir
+    static Path directory;
+
+    private static EmbeddedServer server;
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    private BossClient client;
+
+    private String source;
+
+    @BeforeAll
+    static void startBoss() {
+        server = ApplicationContext.run(EmbeddedServer.class, Map.of(
+                "micronaut.server.port", -1,
+                "boss.repository", "embedded",
+                "boss.embedded.directory", directory.toString()
+        ));
+    }
+
+    @AfterAll
+    static void stopBoss() {
+        server.close();
+    }
+
+    @BeforeEach
+    void createClient() {
+        BossClientConfig config = new BossClientConfig(server.getURI());
+        config.setClaimant("converter-1");
+        config.setWait(Duration.ofSeconds(5));
+        config.setMinBackoff(Duration.ofMillis(10));
+        config.setCheckInterval(Duration.ofMillis(100));
+        client = new BossClient(config);
+        source = "source-" + UUID.randomUUID();
+    }
+
+    @AfterEach
+    void closeClient() {
+        client.close();
+    }
+
+    @Test
+    void thatTakesJobAndMarksItDone() throws Exception {
+        createJob(source, "colors");
+
+        BossJob job = client.takeJob(source);
+        assertThat(job.getSource()).isEqualTo(source);
+        assertThat(job.getStatus()).isEqualTo("ACTIVE");
+        assertThat(job.getDocument().get("topic").asText()).isEqualTo("colors");
+
+        client.hold(job, lost -> {
+        });
+        assertThat(client.heldJobs()).containsExactly(job);
+        assertThat(client.jobDone(job)).isTrue();
+        assertThat(client.heldJobs()).isEmpty();
+        assertThat(isActive(job)).isFalse();
+    }
+
+    @Test
+    void thatTakeJobWaitsForNewJob() throws Exception {
+        CompletableFuture<BossJob> taken = CompletableFuture.supplyAsync(() -> {
+            try {
+                return client.takeJob(source);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(500);
+        assertThat(taken).isNotDone();
+
+        String id = createJob(source, "colors");
+
+        assertThat(taken.get(10, TimeUnit.SECONDS).getId()).isEqualTo(id);
+    }
+
+    @Test
+    void thatHeldJobIsKeptActive() throws Exception {
+        createJob(source, "colors");
+        BossJob job = client.takeJob(source);
+        CompletableFuture<BossJob> lost = new CompletableFuture<>();
+        client.hold(job, lost::complete);
+
+        Thread.sleep(500);
+
+        assertThat(lost).isNotDone();
+        assertThat(isActive(job)).isTrue();
+    }
+
+    @Test
+    void thatLostJobIsReported() throws Exception {
+        createJob(source, "colors");
+        BossJob job = client.takeJob(source);
+        CompletableFuture<BossJob> lost = new CompletableFuture<>();
+        client.hold(job, lost::complete);
+
+        //Stopped by an administrator
+        send(HttpRequest.newBuilder(server.getURI().resolve("/job/done/%s/%s".formatted(source, job.getId())))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build());
+
+        assertThat(lost.get(5, TimeUnit.SECONDS)).isEqualTo(job);
+        assertThat(client.heldJobs()).isEmpty();
+    }
+
+    @Test
+    void thatFindAvailableJobIsEmptyWhenThereIsNone() throws Exception {
+        BossClientConfig config = new BossClientConfig(server.getURI());
+        config.setWait(Duration.ZERO);
+        try (BossClient client = new BossClient(config)) {
+            assertThat(client.findAvailableJob(source)).isEmpty();
+        }
+    }
+
+    private String createJob(String source, String topic) throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(server.getURI().resolve("/job/available/" + source))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("""
+                        {"topic": "%s", "initialPosition": "FIRST"}
+                        """.formatted(topic)))
+                .build());
+        assertThat(response.statusCode()).isEqualTo(201);
+        return new ObjectMapper().readTree(response.body()).get("id").asText();
+    }
+
+    private boolean isActive(BossJob job) throws Exception {
+        return send(HttpRequest.newBuilder(server.getURI().resolve("/job/active/%s/%s".formatted(job.getSource(), job.getId())))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .build()).statusCode() == 200;
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws Exception {
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
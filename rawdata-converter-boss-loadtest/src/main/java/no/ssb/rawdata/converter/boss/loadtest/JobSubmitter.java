@@ -0,0 +1,64 @@
+package no.ssb.rawdata.converter.boss.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An admin client submitting jobs one at a time with POST /job/available/{source}, at a fixed rate, round robin over
+ * the sources. Submissions that fall behind the schedule are made right away, without being skipped.
+ */
+final class JobSubmitter implements Runnable {
+
+    private final int index;
+    private final LoadTestConfig config;
+    private final URI boss;
+    private final HttpClient httpClient;
+    private final Stats stats;
+
+    JobSubmitter(int index, LoadTestConfig config, URI boss, HttpClient httpClient, Stats stats) {
+        this.index = index;
+        this.config = config;
+        this.boss = boss;
+        this.httpClient = httpClient;
+        this.stats = stats;
+    }
+
+    @Override
+    public void run() {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) * config.admins / Math.max(1, config.submitRate);
+        long next = System.nanoTime();
+        for (long i = index; !Thread.currentThread().isInterrupted(); i += config.admins) {
+            try {
+                long delay = next - System.nanoTime();
+                if (delay > 0) {
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                }
+                next += intervalNanos;
+                submit("source-%d".formatted(i % config.sources), i);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | RuntimeException e) {
+                stats.count("errors");
+            }
+        }
+    }
+
+    private void submit(String source, long i) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(boss.resolve("/job/available/" + source))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("""
+                        {"storageRoot": "gs://loadtest", "topic": "topic-%d", "initialPosition": "FIRST"}
+                        """.formatted(i)))
+                .timeout(Duration.ofSeconds(30))
+                .build();
+        long start = System.nanoTime();
+        HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+        stats.record(Stats.SUBMIT, start);
+        stats.count(response.statusCode() == 201 ? "submitted" : "submitFailed");
+    }
+}
@@ -0,0 +1,109 @@
+package no.ssb.rawdata.converter.boss.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micronaut.context.ApplicationContext;
+import io.micronaut.runtime.server.EmbeddedServer;
+import no.ssb.rawdata.converter.job.JobRepository;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs a fleet of virtual converters and admins against a boss for a while, and reports the throughput, latencies and
+ * double claims. The boss is started in this JVM, with its jobs in the local Postgres (which is emptied first!) or the
+ * embedded repository, unless bossUri points to a boss that is already running. See README.md for the options.
+ */
+public final class LoadTest {
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = LoadTestConfig.parse(args);
+        System.out.println("Load test: " + config);
+        EmbeddedServer server = config.bossUri == null ? startBoss(config) : null;
+        URI boss = server == null ? config.bossUri : server.getURI();
+
+        Stats stats = new Stats();
+        Map<String, String> holders = new ConcurrentHashMap<>();
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newCachedThreadPool())
+                .build();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < config.admins; i++) {
+            threads.add(new Thread(new JobSubmitter(i, config, boss, httpClient, stats), "admin-" + i));
+        }
+        for (int i = 0; i < config.converters; i++) {
+            threads.add(new Thread(new VirtualConverter("converter-" + i, config, boss, httpClient, stats, holders), "converter-" + i));
+        }
+        threads.forEach(Thread::start);
+
+        Thread.sleep(config.warmup.toMillis());
+        stats.reset();
+        Thread.sleep(config.duration.toMillis());
+        Map<String, Object> report = stats.report();
+
+        threads.forEach(Thread::interrupt);
+        for (Thread thread : threads) {
+            thread.join(10_000);
+        }
+        if (server != null) {
+            server.close();
+        }
+
+        print(report);
+        Map<String, Object> result = new HashMap<>(report);
+        result.put("config", config.toString());
+        write(Path.of(config.result), result);
+        System.exit(0);
+    }
+
+    private static EmbeddedServer startBoss(LoadTestConfig config) throws IOException {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("micronaut.server.port", -1);
+        properties.put("boss.repository", config.repository);
+        if ("embedded".equals(config.repository)) {
+            properties.put("boss.embedded.directory", Files.createTempDirectory("boss-loadtest").toString());
+        } else {
+            properties.put("datasources.default.url", config.jdbcUrl);
+            properties.put("datasources.default.username", config.jdbcUsername);
+            properties.put("datasources.default.password", config.jdbcPassword);
+            properties.put("datasources.default.driverClassName", "org.postgresql.Driver");
+            properties.put("flyway.datasources.default.enabled", true);
+        }
+        EmbeddedServer server = ApplicationContext.run(EmbeddedServer.class, properties);
+        server.getApplicationContext().getBean(JobRepository.class).deleteAllJobs();
+        return server;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void print(Map<String, Object> report) {
+        System.out.printf("%nOver %.1f s:%n", (double) report.get("seconds"));
+        System.out.printf("%-36s %10s %10s %10s %10s %10s%n", "endpoint", "count", "per sec", "p50 ms", "p99 ms", "max ms");
+        ((Map<String, Map<String, Object>>) report.get("endpoints")).forEach((endpoint, latencies) ->
+                System.out.printf("%-36s %10d %10.1f %10.2f %10.2f %10.2f%n", endpoint, (long) latencies.get("count"),
+                        (double) latencies.get("perSecond"), (double) latencies.get("p50"), (double) latencies.get("p99"),
+                        (double) latencies.get("max")));
+        System.out.printf("%nclaims/sec: %.1f, submits/sec: %.1f, double claims: %d%n", (double) report.get("claimsPerSecond"),
+                (double) report.get("submitsPerSecond"), (long) report.get("doubleClaims"));
+        System.out.println("counts: " + report.get("counts"));
+    }
+
+    private static void write(Path file, Map<String, Object> result) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file.toFile(), result);
+        System.out.println("Result written to " + file);
+    }
+}
@@ -0,0 +1,108 @@
+package no.ssb.rawdata.converter.boss.loadtest;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The options of a load test, given as key=value arguments. Durations are given like 30s, 500ms or 2m.
+ */
+final class LoadTestConfig {
+
+    /**
+     * Number of virtual converters, each claiming and doing one job at a time.
+     */
+    final int converters;
+    /**
+     * Number of admin clients submitting jobs, together at submitRate jobs per second.
+     */
+    final int admins;
+    final int submitRate;
+    /**
+     * Number of sources the jobs are spread over. Converters claim from any source.
+     */
+    final int sources;
+    final Duration heartbeatInterval;
+    final Duration jobDuration;
+    /**
+     * Long-poll wait of the claims. With 0, a converter that finds no job sleeps for idleBackoff before trying again.
+     */
+    final Duration claimWait;
+    final Duration idleBackoff;
+    final Duration warmup;
+    final Duration duration;
+    /**
+     * postgres or embedded, for the boss started by the load test. Ignored if bossUri is given.
+     */
+    final String repository;
+    /**
+     * A boss that is already running, instead of starting one.
+     */
+    final URI bossUri;
+    final String jdbcUrl;
+    final String jdbcUsername;
+    final String jdbcPassword;
+    final String result;
+
+    private LoadTestConfig(Map<String, String> options) {
+        Map<String, String> remaining = new HashMap<>(options);
+        converters = Integer.parseInt(option(remaining, "converters", "50"));
+        admins = Integer.parseInt(option(remaining, "admins", "2"));
+        submitRate = Integer.parseInt(option(remaining, "submitRate", "100"));
+        sources = Integer.parseInt(option(remaining, "sources", "4"));
+        heartbeatInterval = duration(option(remaining, "heartbeatInterval", "1s"));
+        jobDuration = duration(option(remaining, "jobDuration", "2s"));
+        claimWait = duration(option(remaining, "claimWait", "0s"));
+        idleBackoff = duration(option(remaining, "idleBackoff", "100ms"));
+        warmup = duration(option(remaining, "warmup", "10s"));
+        duration = duration(option(remaining, "duration", "60s"));
+        repository = option(remaining, "repository", "postgres");
+        String boss = option(remaining, "bossUri", null);
+        bossUri = boss == null ? null : URI.create(boss);
+        jdbcUrl = option(remaining, "jdbcUrl", "jdbc:postgresql://localhost:5432/rawdata_converter_jobs");
+        jdbcUsername = option(remaining, "jdbcUsername", "boss");
+        jdbcPassword = option(remaining, "jdbcPassword", "bossman");
+        result = option(remaining, "result", "target/loadtest-result.json");
+        if (!remaining.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options: %s".formatted(remaining.keySet()));
+        }
+    }
+
+    static LoadTestConfig parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 1) {
+                throw new IllegalArgumentException("Expected key=value, got: %s".formatted(arg));
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return new LoadTestConfig(options);
+    }
+
+    private static String option(Map<String, String> options, String key, String defaultValue) {
+        String value = options.remove(key);
+        return value == null ? defaultValue : value;
+    }
+
+    private static Duration duration(String s) {
+        if (s.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(s.substring(0, s.length() - 2)));
+        }
+        long amount = Long.parseLong(s.substring(0, s.length() - 1));
+        return switch (s.charAt(s.length() - 1)) {
+            case 's' -> Duration.ofSeconds(amount);
+            case 'm' -> Duration.ofMinutes(amount);
+            case 'h' -> Duration.ofHours(amount);
+            default -> throw new IllegalArgumentException("Expected a duration like 30s, 500ms or 2m, got: %s".formatted(s));
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "converters=%d admins=%d submitRate=%d sources=%d heartbeatInterval=%s jobDuration=%s claimWait=%s warmup=%s duration=%s %s"
+                .formatted(converters, admins, submitRate, sources, heartbeatInterval, jobDuration, claimWait, warmup, duration,
+                        bossUri != null ? "bossUri=" + bossUri : "repository=" + repository);
+    }
+}
@@ -0,0 +1,78 @@
+package no.ssb.rawdata.converter.boss.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies per endpoint, and the counts of what happened, recorded by all virtual converters and admins. Everything
+ * recorded before {@link #reset()} (the warmup) is left out of the report.
+ */
+final class Stats {
+
+    static final String CLAIM = "GET /job/available";
+    static final String HEARTBEAT = "HEAD /job/active/{source}/{id}";
+    static final String DONE = "POST /job/done/{source}/{id}";
+    static final String SUBMIT = "POST /job/available/{source}";
+
+    private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+    private final Map<String, Recorder> recorders = new LinkedHashMap<>();
+    private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+    private volatile long startNanos = System.nanoTime();
+
+    Stats() {
+        for (String endpoint : new String[]{CLAIM, HEARTBEAT, DONE, SUBMIT}) {
+            recorders.put(endpoint, new Recorder(MAX_LATENCY_MICROS, 3));
+        }
+    }
+
+    void record(String endpoint, long startNanos) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        recorders.get(endpoint).recordValue(Math.min(micros, MAX_LATENCY_MICROS));
+    }
+
+    void count(String event) {
+        counts.computeIfAbsent(event, e -> new LongAdder()).increment();
+    }
+
+    void reset() {
+        recorders.values().forEach(Recorder::reset);
+        counts.values().forEach(LongAdder::reset);
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * The latencies since the last reset, in milliseconds, and the counts, with the claims, submissions and requests
+     * per endpoint per second.
+     */
+    Map<String, Object> report() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("seconds", seconds);
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        recorders.forEach((endpoint, recorder) -> {
+            Histogram histogram = recorder.getIntervalHistogram();
+            Map<String, Object> latencies = new LinkedHashMap<>();
+            latencies.put("count", histogram.getTotalCount());
+            latencies.put("perSecond", histogram.getTotalCount() / seconds);
+            latencies.put("p50", histogram.getValueAtPercentile(50) / 1000d);
+            latencies.put("p99", histogram.getValueAtPercentile(99) / 1000d);
+            latencies.put("max", histogram.getMaxValue() / 1000d);
+            endpoints.put(endpoint, latencies);
+        });
+        report.put("endpoints", endpoints);
+        Map<String, Long> events = new LinkedHashMap<>();
+        counts.forEach((event, count) -> events.put(event, count.sum()));
+        report.put("counts", events);
+        report.put("claimsPerSecond", events.getOrDefault("claimed", 0L) / seconds);
+        report.put("submitsPerSecond", events.getOrDefault("submitted", 0L) / seconds);
+        report.put("doubleClaims", events.getOrDefault("doubleClaimed", 0L));
+        return report;
+    }
+}
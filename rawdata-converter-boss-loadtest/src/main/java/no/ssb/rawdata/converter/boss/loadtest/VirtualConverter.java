@@ -0,0 +1,129 @@
+package no.ssb.rawdata.converter.boss.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Follows the converter protocol of doc/design.md: claims a job from any source, checks on it every heartbeat interval
+ * for the job duration, and marks it as done. A job claimed while another converter holds it is counted as a double
+ * claim.
+ */
+final class VirtualConverter implements Runnable {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final String name;
+    private final LoadTestConfig config;
+    private final URI boss;
+    private final HttpClient httpClient;
+    private final Stats stats;
+    private final Map<String, String> holders;
+
+    VirtualConverter(String name, LoadTestConfig config, URI boss, HttpClient httpClient, Stats stats, Map<String, String> holders) {
+        this.name = name;
+        this.config = config;
+        this.boss = boss;
+        this.httpClient = httpClient;
+        this.stats = stats;
+        this.holders = holders;
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                JsonNode job = claim();
+                if (job == null) {
+                    stats.count("claimedNone");
+                    if (config.claimWait.isZero()) {
+                        Thread.sleep(config.idleBackoff.toMillis());
+                    }
+                    continue;
+                }
+                String id = job.get("id").asText();
+                String source = job.get("source").asText();
+                String holder = holders.putIfAbsent(id, name);
+                if (holder != null) {
+                    stats.count("doubleClaimed");
+                }
+                work(id, source);
+                holders.remove(id, name);
+                done(id, source);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | RuntimeException e) {
+                stats.count("errors");
+            }
+        }
+    }
+
+    private JsonNode claim() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(boss.resolve("/job/available?claimant=%s&wait=%dms".formatted(name, config.claimWait.toMillis())))
+                .GET()
+                .timeout(config.claimWait.plusSeconds(30))
+                .build();
+        long start = System.nanoTime();
+        HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        stats.record(Stats.CLAIM, start);
+        return switch (response.statusCode()) {
+            case 200 -> {
+                stats.count("claimed");
+                yield OBJECT_MAPPER.readTree(response.body());
+            }
+            case 404 -> null;
+            case 503 -> {
+                stats.count("shed");
+                Thread.sleep(response.headers().firstValueAsLong("Retry-After").orElse(1) * 1000);
+                yield null;
+            }
+            default -> throw new IllegalStateException("Unexpected response to claim: %d".formatted(response.statusCode()));
+        };
+    }
+
+    /**
+     * Works on the job for the job duration, checking on it every heartbeat interval. Stops if the job is lost.
+     */
+    private void work(String id, String source) throws IOException, InterruptedException {
+        long end = System.nanoTime() + config.jobDuration.toNanos();
+        while (true) {
+            long remaining = end - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            Thread.sleep(Math.min(config.heartbeatInterval.toMillis(), Duration.ofNanos(remaining).toMillis()));
+            if (System.nanoTime() >= end) {
+                return;
+            }
+            HttpRequest request = HttpRequest.newBuilder(boss.resolve("/job/active/%s/%s".formatted(source, id)))
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                    .timeout(Duration.ofSeconds(30))
+                    .build();
+            long start = System.nanoTime();
+            HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+            stats.record(Stats.HEARTBEAT, start);
+            if (response.statusCode() != 200) {
+                stats.count("lost");
+                return;
+            }
+        }
+    }
+
+    private void done(String id, String source) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(boss.resolve("/job/done/%s/%s".formatted(source, id)))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .timeout(Duration.ofSeconds(30))
+                .build();
+        long start = System.nanoTime();
+        HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+        stats.record(Stats.DONE, start);
+        stats.count(response.statusCode() == 200 ? "done" : "doneFailed");
+    }
+}
@@ -0,0 +1,69 @@
+package no.ssb.rawdata.converter.job;
+
+import io.micronaut.context.annotation.Value;
+import io.micronaut.scheduling.annotation.Scheduled;
+
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of jobs known to be active, used to answer liveness checks without a database round trip.
+ * Entries are added when a job is claimed or found active, and removed when the job is done here or a
+ * job_inactive notification arrives from any instance. An entry is trusted for at most
+ * boss.job.active-index.max-staleness, after which the job is checked (and its lease renewed) in the database again.
+ */
+@Singleton
+public class ActiveJobIndex {
+
+    private final boolean enabled;
+    private final long maxStalenessNanos;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public ActiveJobIndex(@Value("${boss.job.active-index.enabled:true}") boolean enabled,
+                          @Value("${boss.job.active-index.max-staleness:30s}") Duration maxStaleness) {
+        this.enabled = enabled;
+        this.maxStalenessNanos = maxStaleness.toNanos();
+    }
+
+    public boolean isActive(String source, String id) {
+        Entry entry = entries.get(id);
+        return entry != null && entry.source.equals(source) && !entry.isStale(System.nanoTime());
+    }
+
+    public void validated(String source, String id) {
+        if (enabled) {
+            entries.put(id, new Entry(source, System.nanoTime()));
+        }
+    }
+
+    public void invalidate(String id) {
+        entries.remove(id);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    @Scheduled(fixedDelay = "${boss.job.active-index.max-staleness:30s}")
+    void evictStale() {
+        long now = System.nanoTime();
+        entries.values().removeIf(entry -> entry.isStale(now));
+    }
+
+    private final class Entry {
+        private final String source;
+        private final long validatedAt;
+
+        private Entry(String source, long validatedAt) {
+            this.source = source;
+            this.validatedAt = validatedAt;
+        }
+
+        private boolean isStale(long now) {
+            return now - validatedAt >= maxStalenessNanos;
+        }
+    }
+}
@@ -0,0 +1,1097 @@
+package no.ssb.rawdata.converter.job;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.huxhorn.sulky.ulid.ULID;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+import io.micronaut.scheduling.annotation.Scheduled;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Singleton;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the jobs in memory, for single instance deployments without Postgres. Enabled with boss.repository set to
+ * embedded.
+ * <p>
+ * Available jobs are kept in a lock-free, ordered queue per source, and a claim takes jobs off the queues without
+ * locking. Every change is appended to a {@link WriteAheadLog} in boss.embedded.directory, and a change is synced to
+ * disk before it's acknowledged. A snapshot of all jobs is written every boss.embedded.snapshot-interval, after which
+ * a new log is started and the old one deleted. On startup the latest snapshot is read and the logs after it replayed.
+ * <p>
+ * Lease renewals are not logged. Instead, jobs that were active when the boss stopped are given a new lease when it
+ * starts again.
+ */
+@Singleton
+@Requires(property = "boss.repository", value = "embedded")
+@Slf4j
+public class EmbeddedJobRepository implements JobRepository, AutoCloseable {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final Comparator<StoredJob> BY_RANK = Comparator.<StoredJob>comparingLong(job -> job.claimRank).thenComparing(job -> job.id);
+    private static final Comparator<StoredJob> BY_DONE_AT = Comparator.<StoredJob>comparingLong(job -> job.doneAt).thenComparing(job -> job.id);
+
+    private static final byte CREATE = 1;
+    private static final byte CLAIM = 2;
+    private static final byte RELEASE = 3;
+    private static final byte DONE = 4;
+    private static final byte ARCHIVE = 5;
+    private static final byte STATE = 6;
+    private static final byte CHECKPOINT = 7;
+    private static final byte SHARDED = 8;
+
+    private final MeterRegistry meterRegistry;
+    private final JobAvailability jobAvailability;
+    private final ActiveJobIndex activeJobIndex;
+    private final Path directory;
+    private final long leaseMicros;
+    private final long priorityAgingStepMicros;
+
+    /**
+     * Ordered by id, so jobs can be listed a page at a time without copying them.
+     */
+    private final ConcurrentNavigableMap<String, StoredJob> jobs = new ConcurrentSkipListMap<>();
+    private final Map<String, StoredJob> archive = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrentSkipListSet<StoredJob>> available = new ConcurrentHashMap<>();
+    private final Set<StoredJob> active = ConcurrentHashMap.newKeySet();
+    private final ConcurrentSkipListSet<StoredJob> done = new ConcurrentSkipListSet<>(BY_DONE_AT);
+    /**
+     * Jobs submitted as unique that aren't done, by fingerprint.
+     */
+    private final Map<String, StoredJob> unfinished = new ConcurrentHashMap<>();
+
+    /**
+     * Changes hold the read lock while they are applied and logged, a snapshot holds the write lock while it copies
+     * the jobs and starts a new log.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile WriteAheadLog wal;
+    private long generation;
+
+    public EmbeddedJobRepository(MeterRegistry meterRegistry,
+                                 JobAvailability jobAvailability,
+                                 ActiveJobIndex activeJobIndex,
+                                 @Value("${boss.embedded.directory:data}") String directory,
+                                 @Value("${boss.job.lease-duration:10m}") Duration leaseDuration,
+                                 @Value("${boss.job.priority-aging-step:1m}") Duration priorityAgingStep) {
+        this.meterRegistry = meterRegistry;
+        this.jobAvailability = jobAvailability;
+        this.activeJobIndex = activeJobIndex;
+        this.directory = Path.of(directory);
+        this.leaseMicros = leaseDuration.toNanos() / 1000;
+        this.priorityAgingStepMicros = priorityAgingStep.toNanos() / 1000;
+        recover();
+    }
+
+    @Override
+    public Job readJob(String id, Job.Status status, String source, boolean includeArchived) {
+        StoredJob job = jobs.get(id);
+        if (job == null && includeArchived) {
+            job = archive.get(id);
+        }
+        if (job == null) {
+            return null;
+        }
+        synchronized (job) {
+            return job.status == status && job.source.equals(source) ? toJob(job.toRawJob()) : null;
+        }
+    }
+
+    @Override
+    public List<Job> findAvailableJobs(String source, String claimant, int max) {
+        List<Job> jobs = new ArrayList<>();
+        for (RawJob rawJob : findAvailableRawJobs(source, claimant, max)) {
+            jobs.add(toJob(rawJob));
+        }
+        return jobs;
+    }
+
+    /**
+     * Takes the jobs with the lowest rank off the queue of the source, or off the queue of any source that isn't
+     * excluded, until max jobs are claimed or there are no more available jobs.
+     */
+    @Override
+    public List<RawJob> findAvailableRawJobs(String source, Collection<String> excludedSources, String claimant, int max) {
+        return claim(() -> source == null ? pollAvailable(excludedSources, Job.Affinity.none()) : pollAvailable(source), claimant, max);
+    }
+
+    /**
+     * Like {@link #findAvailableRawJobs(String, Collection, String, int)}, but only takes jobs that match the affinity.
+     * The documents aren't indexed, so the queues are searched from their heads for matching jobs.
+     */
+    @Override
+    public List<RawJob> findAvailableRawJobs(String source, Collection<String> excludedSources, Job.Affinity affinity, String claimant, int max) {
+        return claim(() -> source == null ? pollAvailable(excludedSources, affinity) : pollAvailable(source, affinity), claimant, max);
+    }
+
+    private List<RawJob> claim(Supplier<StoredJob> nextAvailable, String claimant, int max) {
+        List<RawJob> claimed = new ArrayList<>();
+        WriteAheadLog current;
+        long position = 0;
+        lock.readLock().lock();
+        try {
+            current = wal;
+            while (claimed.size() < max) {
+                StoredJob job = nextAvailable.get();
+                if (job == null) {
+                    break;
+                }
+                synchronized (job) {
+                    if (job.status != Job.Status.AVAILABLE) {
+                        continue; //done while it was being claimed
+                    }
+                    job.claimed(claimant, now(), leaseMicros);
+                    active.add(job);
+                    position = current.append(encodeClaim(job));
+                    claimed.add(toClaimedRawJob(job));
+                    recordTimeInState("boss.job.available.time", job.source, job.createdAt, job.claimedAt);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        current.sync(position);
+        return claimed;
+    }
+
+    private static RawJob toClaimedRawJob(StoredJob job) {
+        if (job.checkpoint == null) {
+            return job.toRawJob();
+        }
+        try {
+            return job.toRawJob().withInitialPosition(OBJECT_MAPPER, job.checkpoint);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to set checkpoint in document of job, id: %s".formatted(job.id), e);
+        }
+    }
+
+    private StoredJob pollAvailable(String source) {
+        ConcurrentSkipListSet<StoredJob> queue = available.get(source);
+        return queue == null ? null : queue.pollFirst();
+    }
+
+    private StoredJob pollAvailable(String source, Job.Affinity affinity) {
+        ConcurrentSkipListSet<StoredJob> queue = available.get(source);
+        if (queue == null) {
+            return null;
+        }
+        while (true) {
+            StoredJob job = firstMatching(queue, affinity);
+            if (job == null || queue.remove(job)) {
+                return job;
+            }
+            //claimed by someone else in the meantime, look again
+        }
+    }
+
+    private StoredJob pollAvailable(Collection<String> excludedSources, Job.Affinity affinity) {
+        while (true) {
+            ConcurrentSkipListSet<StoredJob> first = null;
+            StoredJob head = null;
+            for (Map.Entry<String, ConcurrentSkipListSet<StoredJob>> entry : available.entrySet()) {
+                if (excludedSources.contains(entry.getKey())) {
+                    continue;
+                }
+                StoredJob candidate = firstMatching(entry.getValue(), affinity);
+                if (candidate != null && (head == null || BY_RANK.compare(candidate, head) < 0)) {
+                    head = candidate;
+                    first = entry.getValue();
+                }
+            }
+            if (head == null) {
+                return null;
+            }
+            if (first.remove(head)) {
+                return head;
+            }
+            //claimed by someone else in the meantime, look again
+        }
+    }
+
+    private static StoredJob firstMatching(ConcurrentSkipListSet<StoredJob> queue, Job.Affinity affinity) {
+        for (StoredJob job : queue) {
+            if (job.matches(affinity)) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int renewLease(String id, String source) {
+        StoredJob job = jobs.get(id);
+        if (job == null) {
+            return 0;
+        }
+        synchronized (job) {
+            if (job.status != Job.Status.ACTIVE || !job.source.equals(source)) {
+                return 0;
+            }
+            job.leasedUntil = now() + leaseMicros;
+            return 1;
+        }
+    }
+
+    @Override
+    public Set<String> renewLeases(Collection<Job.Key> keys) {
+        Set<String> renewed = new HashSet<>();
+        for (Job.Key key : keys) {
+            if (renewLease(key.getId(), key.getSource()) > 0) {
+                renewed.add(key.getId());
+            }
+        }
+        return renewed;
+    }
+
+    @Override
+    public int releaseExpiredLeases() {
+        List<StoredJob> released = new ArrayList<>();
+        WriteAheadLog current;
+        long position = 0;
+        lock.readLock().lock();
+        try {
+            current = wal;
+            long now = now();
+            for (StoredJob job : active) {
+                synchronized (job) {
+                    if (job.status != Job.Status.ACTIVE || job.leasedUntil >= now) {
+                        continue;
+                    }
+                    job.released();
+                    active.remove(job);
+                    queue(job.source).add(job);
+                    position = current.append(encodeId(RELEASE, job.id));
+                    released.add(job);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        current.sync(position);
+        for (StoredJob job : released) {
+            activeJobIndex.invalidate(job.id);
+            jobAvailability.signal(job.source);
+        }
+        return released.size();
+    }
+
+    @Override
+    public int createJob(String id, String source, int priority, Job.Document document) {
+        String json;
+        try {
+            json = OBJECT_MAPPER.writeValueAsString(document);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to create json from job: %s".formatted(document), e);
+        }
+        WriteAheadLog current;
+        long position;
+        lock.readLock().lock();
+        try {
+            current = wal;
+            position = create(current, null, id, source, priority, json, null);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (position < 0) {
+            return 0;
+        }
+        current.sync(position);
+        jobAvailability.signal(source);
+        return 1;
+    }
+
+    /**
+     * Jobs are created one by one, but synced to disk together before returning.
+     */
+    @Override
+    public List<Job.SubmissionResult> createJobs(Iterable<Job.Submission> submissions, boolean unique) {
+        List<Job.SubmissionResult> results = new ArrayList<>();
+        Set<String> sources = new HashSet<>();
+        WriteAheadLog current;
+        long position = 0;
+        lock.readLock().lock();
+        try {
+            current = wal;
+            for (Job.Submission submission : submissions) {
+                if (submission.getId() == null) {
+                    submission.setId(new ULID().nextULID());
+                }
+                if (!Job.Submission.isValid(submission)) {
+                    results.add(Job.SubmissionResult.of(submission.getId(), submission.getSource(), Job.SubmissionResult.Outcome.INVALID));
+                    continue;
+                }
+                String fingerprint = unique ? submission.getDocument().fingerprint(submission.getSource()) : null;
+                long created = create(current, null, submission.getId(), submission.getSource(), submission.getPriority(),
+                        OBJECT_MAPPER.writeValueAsString(submission.getDocument()), fingerprint);
+                StoredJob existing = created < 0 && fingerprint != null ? unfinished.get(fingerprint) : null;
+                if (existing != null) {
+                    results.add(Job.SubmissionResult.of(existing.id, submission.getSource(), Job.SubmissionResult.Outcome.DUPLICATE));
+                } else if (created < 0) {
+                    results.add(Job.SubmissionResult.of(submission.getId(), submission.getSource(), Job.SubmissionResult.Outcome.CONFLICT));
+                } else {
+                    position = created;
+                    sources.add(submission.getSource());
+                    results.add(Job.SubmissionResult.of(submission.getId(), submission.getSource(), Job.SubmissionResult.Outcome.CREATED));
+                }
+            }
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to create jobs", e);
+        } finally {
+            lock.readLock().unlock();
+        }
+        current.sync(position);
+        sources.forEach(jobAvailability::signal);
+        return results;
+    }
+
+    /**
+     * Returns the log position of the created job, or -1 if there already is a job with that id, archived or not, or one
+     * that isn't done with the fingerprint, if any. The caller must hold the monitor of the parent, if any.
+     */
+    private long create(WriteAheadLog current, StoredJob parent, String id, String source, int priority, String document, String fingerprint) {
+        long createdAt = now();
+        StoredJob job = new StoredJob(id, source, priority, createdAt, createdAt - priority * priorityAgingStepMicros, document);
+        synchronized (job) {
+            if (fingerprint != null && unfinished.putIfAbsent(fingerprint, job) != null) {
+                return -1;
+            }
+            if (!putNew(job)) {
+                if (fingerprint != null) {
+                    unfinished.remove(fingerprint, job);
+                }
+                return -1;
+            }
+            job.fingerprint = fingerprint;
+            if (parent != null) {
+                job.parentId = parent.id;
+                parent.shards.add(job);
+            }
+            long position = current.append(encodeCreate(job));
+            queue(source).add(job);
+            return position;
+        }
+    }
+
+    /**
+     * Adds the job unless there is a job with its id. The archive is checked after the job is added, and archiving adds
+     * to the archive before it removes from the jobs, so a job being archived meanwhile is seen by one or the other.
+     */
+    private boolean putNew(StoredJob job) {
+        if (jobs.putIfAbsent(job.id, job) != null) {
+            return false;
+        }
+        if (archive.containsKey(job.id)) {
+            jobs.remove(job.id, job);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The parent holds its monitor until all its shards are created, so it can't be marked as done before then.
+     */
+    @Override
+    public List<String> createShardedJob(String id, String source, int priority, Job.Document document, List<String> boundaries) {
+        List<String> shardIds = new ArrayList<>();
+        WriteAheadLog current;
+        long position;
+        lock.readLock().lock();
+        try {
+            current = wal;
+            long createdAt = now();
+            StoredJob parent = new StoredJob(id, source, priority, createdAt, createdAt - priority * priorityAgingStepMicros,
+                    OBJECT_MAPPER.writeValueAsString(document));
+            synchronized (parent) {
+                if (!putNew(parent)) {
+                    return List.of();
+                }
+                List<Job.Document> shards = document.shards(boundaries);
+                parent.status = Job.Status.SHARDED;
+                parent.shardsPending = shards.size();
+                position = current.append(encodeSharded(parent));
+                for (Job.Document shard : shards) {
+                    String shardId = new ULID().nextULID();
+                    position = create(current, parent, shardId, source, priority, OBJECT_MAPPER.writeValueAsString(shard), null);
+                    shardIds.add(shardId);
+                }
+            }
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to create sharded job, id: %s, source: %s".formatted(id, source), e);
+        } finally {
+            lock.readLock().unlock();
+        }
+        current.sync(position);
+        jobAvailability.signal(source);
+        return shardIds;
+    }
+
+    /**
+     * The jobs are marked as done one by one, but synced to disk together before returning.
+     */
+    @Override
+    public Set<String> jobsDone(Collection<Job.Key> keys) {
+        Set<String> found = new HashSet<>();
+        List<StoredJob> stoppedShards = new ArrayList<>();
+        WriteAheadLog current;
+        long position = 0;
+        lock.readLock().lock();
+        try {
+            current = wal;
+            for (Job.Key key : keys) {
+                StoredJob job = jobs.get(key.getId());
+                if (job == null || !job.source.equals(key.getSource())) {
+                    continue;
+                }
+                found.add(job.id);
+                List<StoredJob> shards;
+                synchronized (job) {
+                    shards = job.status == Job.Status.SHARDED ? new ArrayList<>(job.shards) : List.of();
+                    position = Math.max(position, markDone(current, job));
+                }
+                //the monitor of a shard is taken before that of its parent, never the other way around
+                for (StoredJob shard : shards) {
+                    synchronized (shard) {
+                        position = Math.max(position, markDone(current, shard));
+                    }
+                }
+                stoppedShards.addAll(shards);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        current.sync(position);
+        stoppedShards.forEach(shard -> activeJobIndex.invalidate(shard.id));
+        return found;
+    }
+
+    /**
+     * Marks the job as done, unless it already is, and returns the log position of the change, or 0 if there was
+     * none. The caller must hold the monitor of the job.
+     */
+    private long markDone(WriteAheadLog current, StoredJob job) {
+        if (job.status == Job.Status.DONE) {
+            return 0;
+        }
+        if (job.status == Job.Status.AVAILABLE) {
+            queue(job.source).remove(job);
+        }
+        active.remove(job);
+        job.done(now());
+        done.add(job);
+        if (job.fingerprint != null) {
+            unfinished.remove(job.fingerprint, job);
+        }
+        shardDone(job);
+        if (job.claimedAt != 0) {
+            recordTimeInState("boss.job.active.time", job.source, job.claimedAt, job.doneAt);
+        }
+        return current.append(encodeDone(job));
+    }
+
+    /**
+     * Counts down the shards pending on the parent of a job that was just marked as done, if it's a shard, and marks
+     * the parent as done along with its last shard. Not logged, since replaying the shard's done record does the same.
+     */
+    private void shardDone(StoredJob shard) {
+        StoredJob parent = shard.parentId == null ? null : jobs.get(shard.parentId);
+        if (parent == null) {
+            return;
+        }
+        synchronized (parent) {
+            if (parent.status == Job.Status.SHARDED && --parent.shardsPending == 0) {
+                parent.done(shard.doneAt);
+                done.add(parent);
+            }
+        }
+    }
+
+    @Override
+    public JobCursor listJobs(Job.Status status, String source, String after, int limit) {
+        Iterator<StoredJob> iterator = (after == null ? jobs : jobs.tailMap(after, false)).values().iterator();
+        return new JobCursor() {
+            private RawJob next;
+            private int count;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && count < limit && iterator.hasNext()) {
+                    StoredJob job = iterator.next();
+                    synchronized (job) {
+                        if ((status == null || job.status == status) && (source == null || job.source.equals(source))) {
+                            next = job.toRawJob();
+                        }
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public RawJob next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                RawJob job = next;
+                next = null;
+                count++;
+                return job;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public int saveCheckpoints(Map<Job.Key, String> positions) {
+        int saved = 0;
+        WriteAheadLog current;
+        long position = 0;
+        lock.readLock().lock();
+        try {
+            current = wal;
+            for (Map.Entry<Job.Key, String> entry : positions.entrySet()) {
+                StoredJob job = jobs.get(entry.getKey().getId());
+                if (job == null) {
+                    continue;
+                }
+                synchronized (job) {
+                    if (job.status != Job.Status.ACTIVE || !job.source.equals(entry.getKey().getSource())) {
+                        continue;
+                    }
+                    job.checkpoint = entry.getValue();
+                    position = current.append(encodeCheckpoint(job));
+                    saved++;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        current.sync(position);
+        return saved;
+    }
+
+    /**
+     * Moves done jobs to an archive that is kept in memory and in the snapshots, but isn't scanned by claims or
+     * counted.
+     */
+    @Override
+    public int archiveDoneJobs(Duration retention, int batchSize) {
+        long cutoff = now() - retention.toNanos() / 1000;
+        int archived = 0;
+        WriteAheadLog current;
+        long position = 0;
+        lock.readLock().lock();
+        try {
+            current = wal;
+            Iterator<StoredJob> iterator = done.iterator();
+            while (archived < batchSize && iterator.hasNext()) {
+                StoredJob job = iterator.next();
+                if (job.doneAt > cutoff) {
+                    break;
+                }
+                synchronized (job) {
+                    if (!done.remove(job)) {
+                        continue;
+                    }
+                    archive.put(job.id, job);
+                    jobs.remove(job.id, job);
+                    position = current.append(encodeId(ARCHIVE, job.id));
+                    archived++;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        current.sync(position);
+        return archived;
+    }
+
+    @Override
+    public Map<String, Map<Job.Status, Long>> countJobs() {
+        Map<String, Map<Job.Status, Long>> counts = new HashMap<>();
+        for (StoredJob job : jobs.values()) {
+            counts.computeIfAbsent(job.source, source -> new EnumMap<>(Job.Status.class)).merge(job.status, 1L, Long::sum);
+        }
+        return counts;
+    }
+
+    @Override
+    public List<Job> readAllJobs(boolean includeArchived) {
+        Map<String, Job> all = new TreeMap<>();
+        if (includeArchived) {
+            archive.values().forEach(job -> all.put(job.id, toJob(job.toRawJob())));
+        }
+        jobs.values().forEach(job -> all.put(job.id, toJob(job.toRawJob())));
+        return new ArrayList<>(all.values());
+    }
+
+    @Override
+    public int deleteAllJobs() {
+        int deleted;
+        lock.writeLock().lock();
+        try {
+            deleted = jobs.size() + archive.size();
+            jobs.clear();
+            archive.clear();
+            available.clear();
+            active.clear();
+            done.clear();
+            unfinished.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        snapshot();
+        return deleted;
+    }
+
+    /**
+     * Writes a snapshot of all jobs and starts a new log, then deletes the snapshots and logs before it. Until the
+     * snapshot is complete, the previous snapshot and the logs after it are kept, so a crash meanwhile loses nothing.
+     */
+    @Scheduled(fixedDelay = "${boss.embedded.snapshot-interval:5m}")
+    synchronized void snapshot() {
+        List<byte[]> state = new ArrayList<>(jobs.size() + archive.size());
+        long snapshotGeneration;
+        lock.writeLock().lock();
+        try {
+            for (StoredJob job : archive.values()) {
+                state.add(encodeState(job, true));
+            }
+            for (StoredJob job : jobs.values()) {
+                state.add(encodeState(job, false));
+            }
+            snapshotGeneration = generation + 1;
+            WriteAheadLog previous = wal;
+            wal = new WriteAheadLog(walFile(snapshotGeneration));
+            generation = snapshotGeneration;
+            if (previous != null) {
+                previous.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        WriteAheadLog.write(snapshotFile(snapshotGeneration), state);
+        for (long older : generations("snapshot-")) {
+            if (older < snapshotGeneration) {
+                delete(snapshotFile(older));
+            }
+        }
+        for (long older : generations("wal-")) {
+            if (older < snapshotGeneration) {
+                delete(walFile(older));
+            }
+        }
+    }
+
+    @PreDestroy
+    @Override
+    public synchronized void close() {
+        lock.writeLock().lock();
+        try {
+            wal.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the latest snapshot, replays the logs written after it, and starts over with a new snapshot, so that a
+     * torn record at the end of the last log is never appended to.
+     */
+    private void recover() {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create directory: %s".formatted(directory), e);
+        }
+        List<Long> snapshots = generations("snapshot-");
+        long snapshotGeneration = snapshots.isEmpty() ? 0 : snapshots.get(snapshots.size() - 1);
+        long records = 0;
+        if (snapshotGeneration > 0) {
+            records += WriteAheadLog.read(snapshotFile(snapshotGeneration), this::replay);
+        }
+        generation = snapshotGeneration;
+        for (long walGeneration : generations("wal-")) {
+            if (walGeneration >= snapshotGeneration) {
+                records += WriteAheadLog.read(walFile(walGeneration), this::replay);
+                generation = walGeneration;
+            }
+        }
+        long leasedUntil = now() + leaseMicros;
+        active.forEach(job -> job.leasedUntil = leasedUntil);
+        for (StoredJob job : jobs.values()) {
+            StoredJob parent = job.parentId == null ? null : jobs.get(job.parentId);
+            if (parent != null) {
+                parent.shards.add(job);
+            }
+        }
+        log.info("Recovered {} job(s), {} of them archived, from {} record(s) in {}", jobs.size() + archive.size(), archive.size(), records, directory);
+        snapshot();
+    }
+
+    private void replay(byte[] record) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            byte type = in.readByte();
+            switch (type) {
+                case CREATE -> {
+                    StoredJob job = new StoredJob(readString(in), readString(in), in.readInt(), in.readLong(), in.readLong(), readString(in));
+                    if (in.available() > 0) { //not in logs written before sharded jobs
+                        job.parentId = readString(in);
+                    }
+                    if (in.available() > 0) { //not in logs written before unique jobs
+                        job.fingerprint = readString(in);
+                    }
+                    jobs.put(job.id, job);
+                    queue(job.source).add(job);
+                    if (job.fingerprint != null) {
+                        unfinished.put(job.fingerprint, job);
+                    }
+                }
+                case SHARDED -> {
+                    StoredJob job = new StoredJob(readString(in), readString(in), in.readInt(), in.readLong(), in.readLong(), readString(in));
+                    job.status = Job.Status.SHARDED;
+                    job.shardsPending = in.readInt();
+                    jobs.put(job.id, job);
+                }
+                case CLAIM -> {
+                    StoredJob job = jobs.get(readString(in));
+                    queue(job.source).remove(job);
+                    job.claimed(readString(in), in.readLong(), leaseMicros);
+                    active.add(job);
+                }
+                case RELEASE -> {
+                    StoredJob job = jobs.get(readString(in));
+                    active.remove(job);
+                    job.released();
+                    queue(job.source).add(job);
+                }
+                case DONE -> {
+                    StoredJob job = jobs.get(readString(in));
+                    queue(job.source).remove(job);
+                    active.remove(job);
+                    job.done(in.readLong());
+                    done.add(job);
+                    if (job.fingerprint != null) {
+                        unfinished.remove(job.fingerprint, job);
+                    }
+                    shardDone(job);
+                }
+                case ARCHIVE -> {
+                    StoredJob job = jobs.remove(readString(in));
+                    done.remove(job);
+                    archive.putIfAbsent(job.id, job);
+                }
+                case CHECKPOINT -> jobs.get(readString(in)).checkpoint = readString(in);
+                case STATE -> {
+                    StoredJob job = new StoredJob(readString(in), readString(in), in.readInt(), in.readLong(), in.readLong(), readString(in));
+                    job.status = Job.Status.get(readString(in));
+                    job.claimedBy = readString(in);
+                    job.claimedAt = in.readLong();
+                    job.doneAt = in.readLong();
+                    boolean archived = in.readBoolean();
+                    if (in.available() > 0) { //not in snapshots written before checkpoints
+                        job.checkpoint = readString(in);
+                    }
+                    if (in.available() > 0) { //not in snapshots written before sharded jobs
+                        job.parentId = readString(in);
+                        job.shardsPending = in.readInt();
+                    }
+                    if (in.available() > 0) { //not in snapshots written before unique jobs
+                        job.fingerprint = readString(in);
+                    }
+                    if (archived) {
+                        archive.put(job.id, job);
+                    } else {
+                        jobs.put(job.id, job);
+                        if (job.fingerprint != null && job.status != Job.Status.DONE) {
+                            unfinished.put(job.fingerprint, job);
+                        }
+                        switch (job.status) {
+                            case AVAILABLE -> queue(job.source).add(job);
+                            case ACTIVE -> active.add(job);
+                            case DONE -> done.add(job);
+                        }
+                    }
+                }
+                default -> throw new IllegalStateException("Unknown record type: %d".formatted(type));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to replay record", e);
+        }
+    }
+
+    private ConcurrentSkipListSet<StoredJob> queue(String source) {
+        return available.computeIfAbsent(source, s -> new ConcurrentSkipListSet<>(BY_RANK));
+    }
+
+    private List<Long> generations(String prefix) {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(prefix) && !name.endsWith(".tmp"))
+                    .map(name -> Long.parseLong(name.substring(prefix.length(), name.indexOf('.'))))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to list %s".formatted(directory), e);
+        }
+    }
+
+    private Path snapshotFile(long generation) {
+        return directory.resolve("snapshot-%d.dat".formatted(generation));
+    }
+
+    private Path walFile(long generation) {
+        return directory.resolve("wal-%d.log".formatted(generation));
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete {}", file, e);
+        }
+    }
+
+    private static byte[] encodeCreate(StoredJob job) {
+        return encode(out -> {
+            out.writeByte(CREATE);
+            writeJob(out, job);
+            writeString(out, job.parentId);
+            writeString(out, job.fingerprint);
+        });
+    }
+
+    private static byte[] encodeSharded(StoredJob job) {
+        return encode(out -> {
+            out.writeByte(SHARDED);
+            writeJob(out, job);
+            out.writeInt(job.shardsPending);
+        });
+    }
+
+    private static byte[] encodeClaim(StoredJob job) {
+        return encode(out -> {
+            out.writeByte(CLAIM);
+            writeString(out, job.id);
+            writeString(out, job.claimedBy);
+            out.writeLong(job.claimedAt);
+        });
+    }
+
+    private static byte[] encodeDone(StoredJob job) {
+        return encode(out -> {
+            out.writeByte(DONE);
+            writeString(out, job.id);
+            out.writeLong(job.doneAt);
+        });
+    }
+
+    private static byte[] encodeId(byte type, String id) {
+        return encode(out -> {
+            out.writeByte(type);
+            writeString(out, id);
+        });
+    }
+
+    private static byte[] encodeState(StoredJob job, boolean archived) {
+        return encode(out -> {
+            out.writeByte(STATE);
+            writeJob(out, job);
+            writeString(out, job.status.name());
+            writeString(out, job.claimedBy);
+            out.writeLong(job.claimedAt);
+            out.writeLong(job.doneAt);
+            out.writeBoolean(archived);
+            writeString(out, job.checkpoint);
+            writeString(out, job.parentId);
+            out.writeInt(job.shardsPending);
+            writeString(out, job.fingerprint);
+        });
+    }
+
+    private static byte[] encodeCheckpoint(StoredJob job) {
+        return encode(out -> {
+            out.writeByte(CHECKPOINT);
+            writeString(out, job.id);
+            writeString(out, job.checkpoint);
+        });
+    }
+
+    private static void writeJob(DataOutputStream out, StoredJob job) throws IOException {
+        writeString(out, job.id);
+        writeString(out, job.source);
+        out.writeInt(job.priority);
+        out.writeLong(job.createdAt);
+        out.writeLong(job.claimRank);
+        writeString(out, job.document);
+    }
+
+    private static byte[] encode(RecordWriter writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.write(out);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to encode record", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        return length < 0 ? null : new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    private static Job toJob(RawJob rawJob) {
+        try {
+            return rawJob.toJob(OBJECT_MAPPER);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to map document of job, id: %s".formatted(rawJob.getId()), e);
+        }
+    }
+
+    private void recordTimeInState(String name, String source, long fromMicros, long toMicros) {
+        Timer.builder(name)
+                .tag("source", source)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(Duration.of(toMicros - fromMicros, ChronoUnit.MICROS));
+    }
+
+    private static long now() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000 + now.getNano() / 1000;
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * A job and its state. The state is only changed while holding the job's monitor. Id, source and rank never change,
+     * so a job can be looked up in the ordered sets while its state changes.
+     */
+    private static final class StoredJob {
+        private final String id;
+        private final String source;
+        private final int priority;
+        private final long createdAt;
+        private final long claimRank;
+        private final String document;
+
+        private Job.Status status = Job.Status.AVAILABLE;
+        private String claimedBy;
+        private long claimedAt;
+        private long leasedUntil;
+        private long doneAt;
+        private String checkpoint;
+        private String parentId;
+        private int shardsPending;
+        private String fingerprint;
+        /**
+         * The shards of a sharded job, which are stopped along with it.
+         */
+        private final List<StoredJob> shards = new ArrayList<>();
+        /**
+         * The storage root and topic of the document, read the first time a claim asks for them.
+         */
+        private volatile Job.Affinity affinity;
+
+        private StoredJob(String id, String source, int priority, long createdAt, long claimRank, String document) {
+            this.id = id;
+            this.source = source;
+            this.priority = priority;
+            this.createdAt = createdAt;
+            this.claimRank = claimRank;
+            this.document = document;
+        }
+
+        private void claimed(String claimant, long now, long leaseMicros) {
+            status = Job.Status.ACTIVE;
+            claimedBy = claimant;
+            claimedAt = now;
+            leasedUntil = now + leaseMicros;
+        }
+
+        private void released() {
+            status = Job.Status.AVAILABLE;
+            claimedBy = null;
+            claimedAt = 0;
+            leasedUntil = 0;
+        }
+
+        private void done(long now) {
+            status = Job.Status.DONE;
+            leasedUntil = 0;
+            doneAt = now;
+        }
+
+        private RawJob toRawJob() {
+            return new RawJob(id, status, source, document);
+        }
+
+        private boolean matches(Job.Affinity wanted) {
+            if (wanted.isEmpty()) {
+                return true;
+            }
+            if (affinity == null) {
+                try {
+                    JsonNode node = OBJECT_MAPPER.readTree(document);
+                    affinity = Job.Affinity.of(node.path("storageRoot").textValue(), node.path("topic").textValue());
+                } catch (JsonProcessingException e) {
+                    throw new RuntimeException("Failed to read document of job, id: %s".formatted(id), e);
+                }
+            }
+            return (wanted.getStorageRoot() == null || wanted.getStorageRoot().equals(affinity.getStorageRoot()))
+                    && (wanted.getTopic() == null || wanted.getTopic().equals(affinity.getTopic()));
+        }
+    }
+}
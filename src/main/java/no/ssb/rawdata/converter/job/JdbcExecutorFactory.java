@@ -0,0 +1,35 @@
+package no.ssb.rawdata.converter.job;
+
+import io.micronaut.context.annotation.Bean;
+import io.micronaut.context.annotation.Factory;
+import io.micronaut.context.annotation.Value;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Factory
+public class JdbcExecutorFactory {
+
+    public static final String JDBC = "jdbc";
+
+    /**
+     * The executor that all blocking JDBC calls are made on, so that they never run on the netty event loop. Its size
+     * should match the connection pool, as a thread without a connection would only wait for one.
+     */
+    @Singleton
+    @Named(JDBC)
+    @Bean(preDestroy = "shutdown")
+    ExecutorService jdbcExecutor(@Value("${boss.jdbc.threads:10}") int threads) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "jdbc-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(threads, threadFactory);
+    }
+}
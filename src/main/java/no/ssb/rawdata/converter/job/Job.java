@@ -3,11 +3,20 @@ package no.ssb.rawdata.converter.job;
 import de.huxhorn.sulky.ulid.ULID;
 import lombok.Data;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 
 @Data
 public class Job {
+    static final int DEFAULT_PRIORITY = 0;
+    static final int MIN_PRIORITY = -100;
+    static final int MAX_PRIORITY = 100;
+    static final int MAX_SHARDS = 1000;
+
     private String id;
     private Status status;
     private String source;
@@ -34,10 +43,31 @@ public class Job {
         return job;
     }
 
+    static boolean isValidPriority(int priority) {
+        return priority >= MIN_PRIORITY && priority <= MAX_PRIORITY;
+    }
+
+    /**
+     * The SHA-256 hash of the string, as hex.
+     */
+    static String sha256(String s) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+    }
+
     enum Status {
         AVAILABLE,
         ACTIVE,
-        DONE;
+        DONE,
+        SHARDED;
 
         static Status get(String s) {
             return Status.valueOf(Objects.requireNonNull(s).toUpperCase());
@@ -70,9 +100,242 @@ public class Job {
         private long storageVersion;
         private String topic;
         private String initialPosition;
+        private String endPosition;
         private PseudoConfig pseudoConfig;
 
         Document() {
         }
+
+        /**
+         * Identifies the data converted by a job of the source with this document: the hash of the source, storage
+         * root, path and version, and topic. Each is prefixed by its length, so no two different documents have the
+         * same fingerprint.
+         */
+        String fingerprint(String source) {
+            StringBuilder canonical = new StringBuilder();
+            for (String field : new String[]{source, storageRoot, storagePath, String.valueOf(storageVersion), topic}) {
+                canonical.append(field == null ? "-" : field.length() + ":" + field).append(';');
+            }
+            return sha256(canonical.toString());
+        }
+
+        /**
+         * Splits the document into one document per position range: from the initial position to the first boundary,
+         * between each boundary, and from the last boundary to the end position. A range includes its initial
+         * position and excludes its end position.
+         */
+        List<Document> shards(List<String> boundaries) {
+            List<Document> shards = new ArrayList<>(boundaries.size() + 1);
+            String from = initialPosition;
+            for (String boundary : boundaries) {
+                shards.add(withRange(from, boundary));
+                from = boundary;
+            }
+            shards.add(withRange(from, endPosition));
+            return shards;
+        }
+
+        private Document withRange(String initialPosition, String endPosition) {
+            Document shard = new Document();
+            shard.setStorageRoot(storageRoot);
+            shard.setStoragePath(storagePath);
+            shard.setStorageVersion(storageVersion);
+            shard.setTopic(topic);
+            shard.setInitialPosition(initialPosition);
+            shard.setEndPosition(endPosition);
+            shard.setPseudoConfig(pseudoConfig);
+            return shard;
+        }
+    }
+
+    @Data
+    static class Submission {
+        private String id;
+        private String source;
+        private int priority = DEFAULT_PRIORITY;
+        private Document document;
+
+        Submission() {
+        }
+
+        /**
+         * Whether the submission has a source, a document, a valid priority and an ulid as id.
+         */
+        static boolean isValid(Submission submission) {
+            if (submission.getSource() == null || submission.getDocument() == null || !isValidPriority(submission.getPriority())) {
+                return false;
+            }
+            try {
+                ULID.parseULID(submission.getId());
+                return true;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+    }
+
+    @Data
+    static class ShardedSubmission {
+        private String id;
+        private int priority = DEFAULT_PRIORITY;
+        private Document document;
+        private List<String> boundaries;
+
+        ShardedSubmission() {
+        }
+
+        /**
+         * Whether the submission has a document, a valid priority, between 1 and MAX_SHARDS - 1 boundaries and an ulid
+         * as id, if any.
+         */
+        static boolean isValid(ShardedSubmission submission) {
+            if (submission.getDocument() == null || !isValidPriority(submission.getPriority())
+                    || submission.getBoundaries() == null || submission.getBoundaries().isEmpty()
+                    || submission.getBoundaries().size() >= MAX_SHARDS || submission.getBoundaries().contains(null)) {
+                return false;
+            }
+            try {
+                if (submission.getId() != null) {
+                    ULID.parseULID(submission.getId());
+                }
+                return true;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+    }
+
+    @Data
+    static class ShardedResult {
+        private String id;
+        private String source;
+        private List<String> shards;
+
+        ShardedResult() {
+        }
+
+        static ShardedResult of(String id, String source, List<String> shards) {
+            ShardedResult result = new ShardedResult();
+            result.setId(id);
+            result.setSource(source);
+            result.setShards(shards);
+            return result;
+        }
+    }
+
+    @Data
+    static class Key {
+        private String id;
+        private String source;
+
+        Key() {
+        }
+
+        static Key of(String id, String source) {
+            Key key = new Key();
+            key.setId(id);
+            key.setSource(source);
+            return key;
+        }
+    }
+
+    /**
+     * What a converter prefers its next jobs to be like, typically like the last job it did, so that it can reuse what
+     * it has cached for that storage root or topic. Fields that are null match any job.
+     */
+    @Data
+    static class Affinity {
+        private String storageRoot;
+        private String topic;
+
+        Affinity() {
+        }
+
+        static Affinity of(String storageRoot, String topic) {
+            Affinity affinity = new Affinity();
+            affinity.setStorageRoot(storageRoot);
+            affinity.setTopic(topic);
+            return affinity;
+        }
+
+        static Affinity none() {
+            return new Affinity();
+        }
+
+        boolean isEmpty() {
+            return storageRoot == null && topic == null;
+        }
+    }
+
+    @Data
+    static class Progress {
+        private String position;
+
+        Progress() {
+        }
+    }
+
+    @Data
+    static class ActiveResult {
+        private String id;
+        private String source;
+        private boolean active;
+
+        ActiveResult() {
+        }
+
+        static ActiveResult of(Key key, boolean active) {
+            ActiveResult result = new ActiveResult();
+            result.setId(key.getId());
+            result.setSource(key.getSource());
+            result.setActive(active);
+            return result;
+        }
+    }
+
+    @Data
+    static class DoneResult {
+        private String id;
+        private String source;
+        private boolean done;
+
+        DoneResult() {
+        }
+
+        static DoneResult of(Key key, boolean done) {
+            DoneResult result = new DoneResult();
+            result.setId(key.getId());
+            result.setSource(key.getSource());
+            result.setDone(done);
+            return result;
+        }
+    }
+
+    @Data
+    static class SubmissionResult {
+        private String id;
+        private String source;
+        private Outcome outcome;
+
+        SubmissionResult() {
+        }
+
+        static SubmissionResult of(String id, String source, Outcome outcome) {
+            SubmissionResult result = new SubmissionResult();
+            result.setId(id);
+            result.setSource(source);
+            result.setOutcome(outcome);
+            return result;
+        }
+
+        enum Outcome {
+            CREATED,
+            CONFLICT,
+            /**
+             * There is a job with the same fingerprint that isn't done, whose id is given instead.
+             */
+            DUPLICATE,
+            INVALID
+        }
     }
 }
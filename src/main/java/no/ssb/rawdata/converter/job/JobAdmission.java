@@ -0,0 +1,158 @@
+package no.ssb.rawdata.converter.job;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micronaut.context.annotation.Value;
+
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission control for claims, which converters simply retry, so that they don't pile up in front of a database that
+ * can't keep up. At most boss.admission.max-concurrent-claims claims are made at a time, and none while calls queued
+ * for the jdbc executor (which is as large as the connection pool) wait longer than boss.admission.max-queue-wait.
+ * Rejected claims are answered with 503 and Retry-After right away. Other requests, like liveness checks and done
+ * notifications, are always admitted, and so are served ahead of the claims that would otherwise be queued.
+ * <p>
+ * Listings hold a connection for as long as the client takes to read them, so at most
+ * boss.admission.max-concurrent-listings are streamed at a time, and the rest are rejected the same way.
+ */
+@Singleton
+public class JobAdmission {
+
+    private final boolean enabled;
+    private final Semaphore claims;
+    private final Semaphore listings;
+    private final long maxQueueWaitNanos;
+    private final Duration retryAfter;
+    private final Counter overloaded;
+    private final Counter saturated;
+    private final Counter listingsSaturated;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private volatile long lastQueueWaitNanos;
+
+    public JobAdmission(MeterRegistry meterRegistry,
+                        @Value("${boss.admission.enabled:true}") boolean enabled,
+                        @Value("${boss.admission.max-concurrent-claims:20}") int maxConcurrentClaims,
+                        @Value("${boss.admission.max-concurrent-listings:2}") int maxConcurrentListings,
+                        @Value("${boss.admission.max-queue-wait:500ms}") Duration maxQueueWait,
+                        @Value("${boss.admission.retry-after:1s}") Duration retryAfter) {
+        this.enabled = enabled;
+        this.claims = new Semaphore(maxConcurrentClaims);
+        this.listings = new Semaphore(maxConcurrentListings);
+        this.maxQueueWaitNanos = maxQueueWait.toNanos();
+        this.retryAfter = retryAfter;
+        this.overloaded = meterRegistry.counter("boss.admission.rejected", "reason", "overloaded");
+        this.saturated = meterRegistry.counter("boss.admission.rejected", "reason", "saturated");
+        this.listingsSaturated = meterRegistry.counter("boss.admission.rejected", "reason", "listings");
+    }
+
+    /**
+     * Whether a claim may be made, in which case {@link #release()} must be called when it's done.
+     */
+    public boolean tryAdmitClaim() {
+        if (!enabled) {
+            return true;
+        }
+        if (isOverloaded()) {
+            overloaded.increment();
+            return false;
+        }
+        if (!claims.tryAcquire()) {
+            saturated.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public void release() {
+        if (enabled) {
+            claims.release();
+        }
+    }
+
+    /**
+     * Whether a listing may be streamed, in which case {@link #releaseListing()} must be called when it's done.
+     */
+    public boolean tryAdmitListing() {
+        if (!enabled) {
+            return true;
+        }
+        if (!listings.tryAcquire()) {
+            listingsSaturated.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public void releaseListing() {
+        if (enabled) {
+            listings.release();
+        }
+    }
+
+    /**
+     * Calls are overloaded while there are calls waiting for the jdbc executor, and the last one to get a thread
+     * waited longer than boss.admission.max-queue-wait. Once the queue is empty they are not, however long the last
+     * wait was.
+     */
+    boolean isOverloaded() {
+        return queued.get() > 0 && lastQueueWaitNanos > maxQueueWaitNanos;
+    }
+
+    /**
+     * A call is queued for the jdbc executor from now, until it's started or cancelled.
+     */
+    QueuedCall queue() {
+        queued.incrementAndGet();
+        return new QueuedCall(System.nanoTime());
+    }
+
+    /**
+     * The Retry-After header value of rejected requests, in whole seconds.
+     */
+    public String retryAfterSeconds() {
+        return String.valueOf(Math.max(1, (retryAfter.toMillis() + 999) / 1000));
+    }
+
+    final class QueuedCall {
+        private final long queuedAt;
+        private final AtomicBoolean dequeued = new AtomicBoolean();
+
+        private QueuedCall(long queuedAt) {
+            this.queuedAt = queuedAt;
+        }
+
+        /**
+         * The call got a thread of the jdbc executor.
+         */
+        void started() {
+            if (dequeued.compareAndSet(false, true)) {
+                lastQueueWaitNanos = System.nanoTime() - queuedAt;
+                queued.decrementAndGet();
+            }
+        }
+
+        /**
+         * The call was disposed of, which does nothing if it already started.
+         */
+        void cancelled() {
+            if (dequeued.compareAndSet(false, true)) {
+                queued.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * A request that wasn't admitted, which is answered with 503 Service Unavailable and Retry-After.
+     */
+    static final class RejectedException extends RuntimeException {
+        RejectedException(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package no.ssb.rawdata.converter.job;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micronaut.context.annotation.Value;
+import io.micronaut.scheduling.annotation.Scheduled;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Singleton;
+import java.time.Duration;
+
+/**
+ * Moves done jobs to job_archive once they have been done for longer than boss.job.archive.retention, in batches of
+ * boss.job.archive.batch-size, so the job table doesn't keep growing with jobs that will never be claimed again.
+ */
+@Singleton
+@Slf4j
+public class JobArchiver {
+
+    private final JobRepository repository;
+    private final Timer timer;
+    private final boolean enabled;
+    private final Duration retention;
+    private final int batchSize;
+
+    public JobArchiver(JobRepository repository,
+                       MeterRegistry meterRegistry,
+                       @Value("${boss.job.archive.enabled:true}") boolean enabled,
+                       @Value("${boss.job.archive.retention:7d}") Duration retention,
+                       @Value("${boss.job.archive.batch-size:10000}") int batchSize) {
+        this.repository = repository;
+        this.timer = ReactiveJobRepository.timer(meterRegistry, "archiveDoneJobs");
+        this.enabled = enabled;
+        this.retention = retention;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelay = "${boss.job.archive.interval:1m}")
+    void archiveDoneJobs() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            int archived = 0;
+            int batch;
+            do {
+                batch = timer.recordCallable(() -> repository.archiveDoneJobs(retention, batchSize));
+                archived += batch;
+            } while (batch == batchSize);
+            if (archived > 0) {
+                log.info("Archived {} done job(s)", archived);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to archive done jobs", e);
+        }
+    }
+}
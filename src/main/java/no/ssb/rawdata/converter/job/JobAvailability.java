@@ -0,0 +1,47 @@
+package no.ssb.rawdata.converter.job;
+
+import javax.inject.Singleton;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of requests waiting for a job to become available, and wakes them up when one does.
+ */
+@Singleton
+public class JobAvailability {
+
+    private static final String ANY_SOURCE = "";
+
+    private final Map<String, Set<CompletableFuture<Void>>> waiters = new ConcurrentHashMap<>();
+
+    /**
+     * Returns a future that completes the next time a job becomes available for the source, or for any source if
+     * source is null. Cancel the future to stop waiting.
+     */
+    public CompletableFuture<Void> await(String source) {
+        String key = source == null ? ANY_SOURCE : source;
+        CompletableFuture<Void> waiter = new CompletableFuture<>();
+        Set<CompletableFuture<Void>> sourceWaiters = waiters.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet());
+        sourceWaiters.add(waiter);
+        waiter.whenComplete((v, t) -> sourceWaiters.remove(waiter));
+        return waiter;
+    }
+
+    public void signal(String source) {
+        wake(source);
+        wake(ANY_SOURCE);
+    }
+
+    public void signalAll() {
+        waiters.keySet().forEach(this::wake);
+    }
+
+    private void wake(String key) {
+        Set<CompletableFuture<Void>> toWake = waiters.get(key);
+        if (toWake != null) {
+            toWake.forEach(waiter -> waiter.complete(null));
+        }
+    }
+}
@@ -1,78 +1,354 @@
 package no.ssb.rawdata.converter.job;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import de.huxhorn.sulky.ulid.ULID;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import io.micronaut.context.annotation.Value;
+import io.micronaut.http.HttpHeaders;
+import io.micronaut.http.HttpRequest;
 import io.micronaut.http.HttpResponse;
 import io.micronaut.http.HttpStatus;
+import io.micronaut.http.MediaType;
 import io.micronaut.http.annotation.Body;
 import io.micronaut.http.annotation.Controller;
+import io.micronaut.http.annotation.Error;
 import io.micronaut.http.annotation.Get;
 import io.micronaut.http.annotation.Head;
 import io.micronaut.http.annotation.PathVariable;
 import io.micronaut.http.annotation.Post;
+import io.micronaut.http.annotation.QueryValue;
+import io.micronaut.http.exceptions.HttpStatusException;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
 import lombok.extern.slf4j.Slf4j;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * All endpoints return reactive types. Database calls are made on the jdbc executor by {@link ReactiveJobRepository},
+ * so a slow query never blocks the netty event loop.
+ */
 @Controller
 @Slf4j
 public class JobController {
 
-    private final JobRepository repository;
+    private final ReactiveJobRepository repository;
+    private final JobAvailability jobAvailability;
+    private final ActiveJobIndex activeJobIndex;
+    private final JobProgressBuffer progressBuffer;
+    private final JobAdmission admission;
+    private final Duration maxWait;
+    private final int maxClaim;
+    private final int listDefaultLimit;
+    private final int listMaxLimit;
+    private final boolean documentPassthrough;
+    private final ObjectMapper objectMapper;
 
-    public JobController(JobRepository repository) {
+    public JobController(ReactiveJobRepository repository,
+                         JobAvailability jobAvailability,
+                         ActiveJobIndex activeJobIndex,
+                         JobProgressBuffer progressBuffer,
+                         JobAdmission admission,
+                         @Value("${boss.job.max-wait:60s}") Duration maxWait,
+                         @Value("${boss.job.max-claim:100}") int maxClaim,
+                         @Value("${boss.job.list.default-limit:1000}") int listDefaultLimit,
+                         @Value("${boss.job.list.max-limit:10000}") int listMaxLimit,
+                         @Value("${boss.job.document-passthrough:true}") boolean documentPassthrough,
+                         ObjectMapper objectMapper) {
         this.repository = repository;
+        this.jobAvailability = jobAvailability;
+        this.activeJobIndex = activeJobIndex;
+        this.progressBuffer = progressBuffer;
+        this.admission = admission;
+        this.maxWait = maxWait;
+        this.maxClaim = maxClaim;
+        this.listDefaultLimit = listDefaultLimit;
+        this.listMaxLimit = listMaxLimit;
+        this.documentPassthrough = documentPassthrough;
+        this.objectMapper = objectMapper;
     }
 
     @Head("/job/active/{source}/{id}")
-    public HttpResponse<Void> isJobActive(@PathVariable String source, @PathVariable String id) {
-        if (repository.readJob(id, Job.Status.ACTIVE, source) == null) {
-            return HttpResponse.notFound();
+    public Single<HttpResponse<Void>> isJobActive(@PathVariable String source, @PathVariable String id) {
+        if (activeJobIndex.isActive(source, id)) {
+            return Single.just(HttpResponse.ok());
         }
-        return HttpResponse.ok();
+        return repository.renewLease(id, source).map(renewed -> {
+            if (renewed < 1) {
+                activeJobIndex.invalidate(id);
+                return HttpResponse.notFound();
+            }
+            activeJobIndex.validated(source, id);
+            return HttpResponse.ok();
+        });
     }
 
-    @Get("/job/available/{source}")
-    public HttpResponse<Job> findAvailableJob(@PathVariable String source) {
-        Job job = repository.findAvailableJob(source);
-        if (job == null) {
-            return HttpResponse.notFound();
+    /**
+     * Checks on many jobs at once, which also renews their leases. Jobs in the active job index are answered from
+     * it, the rest are checked with a single query.
+     */
+    @Post("/job/active/check")
+    public Single<HttpResponse<List<Job.ActiveResult>>> checkJobs(@Body List<Job.Key> jobs) {
+        Set<Job.Key> unknown = new HashSet<>();
+        for (Job.Key job : jobs) {
+            if (!activeJobIndex.isActive(job.getSource(), job.getId())) {
+                unknown.add(job);
+            }
         }
-        return HttpResponse.ok(job);
+        Single<Set<String>> renewed = unknown.isEmpty() ? Single.just(Set.of()) : repository.renewLeases(unknown);
+        return renewed.map(renewedIds -> {
+            for (Job.Key job : unknown) {
+                if (renewedIds.contains(job.getId())) {
+                    activeJobIndex.validated(job.getSource(), job.getId());
+                } else {
+                    activeJobIndex.invalidate(job.getId());
+                }
+            }
+            List<Job.ActiveResult> results = new ArrayList<>(jobs.size());
+            for (Job.Key job : jobs) {
+                results.add(Job.ActiveResult.of(job, !unknown.contains(job) || renewedIds.contains(job.getId())));
+            }
+            return HttpResponse.ok(results);
+        });
     }
 
-    @Get("/job/available")
-    public HttpResponse<Job> findAvailableJob() {
-        Job job = repository.findAvailableJob();
-        if (job == null) {
-            return HttpResponse.notFound();
+    /**
+     * Lists jobs in id order, a page of limit jobs at a time: the next page is the jobs after the id of the last job in
+     * this page. The jobs are streamed from the database to the response as a JSON array, with their documents as
+     * stored. Pages are at most boss.job.list.max-limit jobs.
+     */
+    @Get("/job")
+    public Flowable<RawJob> listJobs(@Nullable @QueryValue String status, @Nullable @QueryValue String source, @Nullable @QueryValue String after, @Nullable @QueryValue Integer limit) {
+        Job.Status jobStatus;
+        try {
+            jobStatus = status == null ? null : Job.Status.get(status);
+        } catch (IllegalArgumentException e) {
+            return Flowable.error(new HttpStatusException(HttpStatus.BAD_REQUEST, "Unknown status: %s".formatted(status)));
+        }
+        if (limit != null && limit < 1) {
+            return Flowable.error(new HttpStatusException(HttpStatus.BAD_REQUEST, "Expected a positive limit, got: %d".formatted(limit)));
         }
-        return HttpResponse.ok(job);
+        return repository.listJobs(jobStatus, source, after, limit == null ? listDefaultLimit : Math.min(limit, listMaxLimit));
+    }
+
+    /**
+     * Jobs with the storage root and topic given, if any, are preferred over jobs that are first in line.
+     */
+    @Get("/job/available/{source}")
+    public Single<HttpResponse<?>> findAvailableJob(HttpRequest<?> request, @PathVariable String source, @Nullable @QueryValue String claimant, @Nullable @QueryValue Duration wait, @Nullable @QueryValue Integer max,
+                                                   @Nullable @QueryValue String storageRoot, @Nullable @QueryValue String topic) {
+        return claimJobs(source, Job.Affinity.of(storageRoot, topic), claimant(request, claimant), wait, max).map(jobs -> toResponse(jobs, max));
+    }
+
+    @Get("/job/available")
+    public Single<HttpResponse<?>> findAvailableJob(HttpRequest<?> request, @Nullable @QueryValue String claimant, @Nullable @QueryValue Duration wait, @Nullable @QueryValue Integer max,
+                                                   @Nullable @QueryValue String storageRoot, @Nullable @QueryValue String topic) {
+        return claimJobs(null, Job.Affinity.of(storageRoot, topic), claimant(request, claimant), wait, max).map(jobs -> toResponse(jobs, max));
     }
 
+    /**
+     * Creates the job. If unique, a job that isn't done with the same fingerprint (see
+     * {@link Job.Document#fingerprint(String)}) is returned instead.
+     */
     @Post("/job/available/{source}/{id}")
-    public HttpResponse<Job> createJob(@Body Job.Document document, @PathVariable String source, @PathVariable String id) {
+    public Single<HttpResponse<?>> createJob(@Body Job.Document document, @PathVariable String source, @PathVariable String id, @Nullable @QueryValue Integer priority, @Nullable @QueryValue Boolean unique) {
         try {
             ULID.parseULID(id);
         } catch (Exception e) {
             log.warn("Got invalid id: '%s' expected an ulid string".formatted(id));
-            return HttpResponse.badRequest();
+            return Single.just(HttpResponse.badRequest());
+        }
+        if (priority != null && !Job.isValidPriority(priority)) {
+            return Single.just(HttpResponse.badRequest());
         }
-        if (repository.createJob(id, source, document) < 1) {
-            return HttpResponse.status(HttpStatus.CONFLICT); //a job with that id already exists
+        if (Boolean.TRUE.equals(unique)) {
+            return createUniqueJob(id, source, priority, document);
         }
-        return HttpResponse.created(Job.create(id, Job.Status.AVAILABLE, source, document));
+        return repository.createJob(id, source, priority == null ? Job.DEFAULT_PRIORITY : priority, document).map(created -> {
+            if (created < 1) {
+                return HttpResponse.status(HttpStatus.CONFLICT); //a job with that id already exists
+            }
+            return HttpResponse.created(Job.create(id, Job.Status.AVAILABLE, source, document));
+        });
     }
 
     @Post("/job/available/{source}")
-    public HttpResponse<Job> createJob(@Body Job.Document document, @PathVariable String source) {
+    public Single<HttpResponse<?>> createJob(@Body Job.Document document, @PathVariable String source, @Nullable @QueryValue Integer priority, @Nullable @QueryValue Boolean unique) {
+        if (priority != null && !Job.isValidPriority(priority)) {
+            return Single.just(HttpResponse.badRequest());
+        }
         String id = new ULID().nextULID();
-        repository.createJob(id, source, document);
-        return HttpResponse.created(Job.create(id, Job.Status.AVAILABLE, source, document));
+        if (Boolean.TRUE.equals(unique)) {
+            return createUniqueJob(id, source, priority, document);
+        }
+        return repository.createJob(id, source, priority == null ? Job.DEFAULT_PRIORITY : priority, document)
+                .map(created -> HttpResponse.created(Job.create(id, Job.Status.AVAILABLE, source, document)));
+    }
+
+    /**
+     * Created jobs are returned like other created jobs, duplicates as the submission result with the id of the job
+     * that isn't done.
+     */
+    private Single<HttpResponse<?>> createUniqueJob(String id, String source, Integer priority, Job.Document document) {
+        return repository.createUniqueJob(id, source, priority == null ? Job.DEFAULT_PRIORITY : priority, document).map(result -> switch (result.getOutcome()) {
+            case CREATED -> HttpResponse.created(Job.create(id, Job.Status.AVAILABLE, source, document));
+            case DUPLICATE -> HttpResponse.ok(result);
+            case INVALID -> HttpResponse.badRequest();
+            case CONFLICT -> HttpResponse.status(HttpStatus.CONFLICT); //a job with that id already exists
+        });
+    }
+
+    /**
+     * Creates a job that is split into shards over the position ranges between the boundaries, which are claimed by
+     * converters as separate jobs. The job is done when all its shards are done.
+     */
+    @Post("/job/sharded/{source}")
+    public Single<HttpResponse<Job.ShardedResult>> createShardedJob(@PathVariable String source, @Body Job.ShardedSubmission submission) {
+        if (!Job.ShardedSubmission.isValid(submission)) {
+            return Single.just(HttpResponse.badRequest());
+        }
+        String id = submission.getId() != null ? submission.getId() : new ULID().nextULID();
+        return repository.createShardedJob(id, source, submission.getPriority(), submission.getDocument(), submission.getBoundaries()).map(shards -> {
+            if (shards.isEmpty()) {
+                return HttpResponse.status(HttpStatus.CONFLICT); //a job with that id already exists
+            }
+            return HttpResponse.created(Job.ShardedResult.of(id, source, shards));
+        });
+    }
+
+    @Post(value = "/job/available", consumes = MediaType.APPLICATION_JSON)
+    public Single<HttpResponse<List<Job.SubmissionResult>>> createJobs(@Body List<Job.Submission> submissions, @Nullable @QueryValue Boolean unique) {
+        return repository.createJobs(submissions, Boolean.TRUE.equals(unique)).map(HttpResponse::ok);
+    }
+
+    /**
+     * The whole stream is read before the jobs are inserted, so a slow client doesn't hold a jdbc thread, a connection
+     * and a transaction while it sends.
+     */
+    @Post(value = "/job/available", consumes = MediaType.APPLICATION_JSON_STREAM)
+    public Single<HttpResponse<List<Job.SubmissionResult>>> createJobs(@Body Flowable<Job.Submission> submissions, @Nullable @QueryValue Boolean unique) {
+        return submissions.toList()
+                .flatMap(received -> repository.createJobs(received, Boolean.TRUE.equals(unique)))
+                .map(HttpResponse::ok);
+    }
+
+    /**
+     * Accepts the last position the converter has committed for the job. The position is saved as a checkpoint by
+     * {@link JobProgressBuffer} shortly after, if the job is still active, and the next claim of the job resumes from it.
+     */
+    @Post("/job/progress/{source}/{id}")
+    public Single<HttpResponse<Void>> reportProgress(@PathVariable String source, @PathVariable String id, @Body Job.Progress progress) {
+        if (progress.getPosition() == null) {
+            return Single.just(HttpResponse.badRequest());
+        }
+        progressBuffer.report(id, source, progress.getPosition());
+        return Single.just(HttpResponse.accepted());
     }
 
     @Post("/job/done/{source}/{id}")
-    public HttpResponse<Job> notifyJobDone(@PathVariable String source, @PathVariable String id) {
-        if (repository.jobDone(id, source) < 1) {
+    public Single<HttpResponse<Job>> notifyJobDone(@PathVariable String source, @PathVariable String id) {
+        activeJobIndex.invalidate(id);
+        return repository.jobDone(id, source).map(done -> done < 1 ? HttpResponse.notFound() : HttpResponse.ok());
+    }
+
+    @Post("/job/done")
+    public Single<HttpResponse<List<Job.DoneResult>>> notifyJobsDone(@Body List<Job.Key> jobs) {
+        jobs.forEach(job -> activeJobIndex.invalidate(job.getId()));
+        return repository.jobsDone(jobs).map(doneIds -> {
+            List<Job.DoneResult> results = new ArrayList<>(jobs.size());
+            for (Job.Key job : jobs) {
+                results.add(Job.DoneResult.of(job, doneIds.contains(job.getId())));
+            }
+            return HttpResponse.ok(results);
+        });
+    }
+
+    private Single<List<RawJob>> claimJobs(String source, Job.Affinity affinity, String claimant, Duration wait, Integer max) {
+        int limit = max == null ? 1 : Math.max(1, Math.min(max, maxClaim));
+        if (wait == null || wait.isZero() || wait.isNegative()) {
+            return claim(source, affinity, claimant, limit);
+        }
+        long deadline = System.nanoTime() + (wait.compareTo(maxWait) > 0 ? maxWait : wait).toNanos();
+        return claimJobsBefore(deadline, source, affinity, claimant, limit);
+    }
+
+    /**
+     * Long-poll: the request is parked on a future, not a thread or a connection, until a job becomes available for
+     * the source or the deadline passes. Waiting is registered before claiming, so a job created in between is not missed.
+     * The waiter is removed however the request ends, also when the claim fails or the client goes away.
+     */
+    private Single<List<RawJob>> claimJobsBefore(long deadline, String source, Job.Affinity affinity, String claimant, int limit) {
+        return Single.defer(() -> {
+            CompletableFuture<Void> available = jobAvailability.await(source);
+            return claim(source, affinity, claimant, limit).flatMap(jobs -> {
+                long remaining = deadline - System.nanoTime();
+                if (!jobs.isEmpty() || remaining <= 0) {
+                    return Single.just(jobs);
+                }
+                return Completable.create(emitter -> {
+                    emitter.setCancellable(() -> available.cancel(false));
+                    available.completeOnTimeout(null, remaining, TimeUnit.NANOSECONDS)
+                            .whenComplete((v, t) -> emitter.onComplete());
+                }).andThen(claimJobsBefore(deadline, source, affinity, claimant, limit));
+            }).doFinally(() -> available.cancel(false));
+        });
+    }
+
+    /**
+     * Every claim must be admitted by {@link JobAdmission}, also those of a long-poll after the first one.
+     */
+    private Single<List<RawJob>> claim(String source, Job.Affinity affinity, String claimant, int limit) {
+        return Single.defer(() -> {
+            if (!admission.tryAdmitClaim()) {
+                return Single.error(new JobAdmission.RejectedException("Claim rejected by admission control"));
+            }
+            return repository.findAvailableRawJobs(source, affinity, claimant, limit)
+                    .doOnSuccess(jobs -> jobs.forEach(job -> activeJobIndex.validated(job.getSource(), job.getId())))
+                    .doFinally(admission::release);
+        });
+    }
+
+    /**
+     * Requests rejected by {@link JobAdmission} are answered with 503 Service Unavailable and when to try again.
+     */
+    @Error(exception = JobAdmission.RejectedException.class)
+    public HttpResponse<?> rejected(HttpRequest<?> request, JobAdmission.RejectedException e) {
+        return HttpResponse.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, admission.retryAfterSeconds());
+    }
+
+    /**
+     * A single job when max isn't given, otherwise a list of up to max jobs. The stored documents are passed through
+     * as is, unless boss.job.document-passthrough is disabled.
+     */
+    private HttpResponse<?> toResponse(List<RawJob> rawJobs, Integer max) {
+        if (rawJobs.isEmpty()) {
             return HttpResponse.notFound();
         }
-        return HttpResponse.ok();
+        List<?> jobs = documentPassthrough ? rawJobs : toJobs(rawJobs);
+        return max == null ? HttpResponse.ok(jobs.get(0)) : HttpResponse.ok(jobs);
+    }
+
+    private List<Job> toJobs(List<RawJob> rawJobs) {
+        List<Job> jobs = new ArrayList<>(rawJobs.size());
+        for (RawJob rawJob : rawJobs) {
+            try {
+                jobs.add(rawJob.toJob(objectMapper));
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException("Failed to map document of job, id: %s".formatted(rawJob.getId()), e);
+            }
+        }
+        return jobs;
+    }
+
+    private static String claimant(HttpRequest<?> request, String claimant) {
+        return claimant != null ? claimant : request.getRemoteAddress().getHostString();
     }
 }
@@ -0,0 +1,13 @@
+package no.ssb.rawdata.converter.job;
+
+import java.util.Iterator;
+
+/**
+ * Jobs read one at a time in id order, from {@link JobRepository#listJobs}. A cursor may hold a database connection
+ * until it's closed.
+ */
+public interface JobCursor extends Iterator<RawJob>, AutoCloseable {
+
+    @Override
+    void close();
+}
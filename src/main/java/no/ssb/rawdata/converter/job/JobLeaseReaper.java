@@ -0,0 +1,33 @@
+package no.ssb.rawdata.converter.job;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micronaut.scheduling.annotation.Scheduled;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Singleton;
+
+@Singleton
+@Slf4j
+public class JobLeaseReaper {
+
+    private final JobRepository repository;
+    private final Timer timer;
+
+    public JobLeaseReaper(JobRepository repository, MeterRegistry meterRegistry) {
+        this.repository = repository;
+        this.timer = ReactiveJobRepository.timer(meterRegistry, "releaseExpiredLeases");
+    }
+
+    @Scheduled(fixedDelay = "${boss.job.lease-reaper-interval:30s}")
+    void releaseExpiredLeases() {
+        try {
+            int released = timer.recordCallable(repository::releaseExpiredLeases);
+            if (released > 0) {
+                log.info("Released {} active job(s) with expired lease", released);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to release expired leases", e);
+        }
+    }
+}
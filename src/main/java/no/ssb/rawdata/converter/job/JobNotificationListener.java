@@ -0,0 +1,112 @@
+package no.ssb.rawdata.converter.job;
+
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.event.StartupEvent;
+import io.micronaut.runtime.event.annotation.EventListener;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Singleton;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Listens on a dedicated connection for the notifications sent by the job_available_notify trigger, which are passed on
+ * to {@link JobAvailability}, and by the job_inactive_notify trigger, which are passed on to {@link ActiveJobIndex}.
+ */
+@Singleton
+@Requires(property = "boss.repository", value = "postgres", defaultValue = "postgres")
+@Slf4j
+public class JobNotificationListener {
+
+    static final String JOB_AVAILABLE_CHANNEL = "job_available";
+    static final String JOB_INACTIVE_CHANNEL = "job_inactive";
+
+    private final DataSource dataSource;
+    private final JobAvailability jobAvailability;
+    private final ActiveJobIndex activeJobIndex;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public JobNotificationListener(DataSource dataSource, JobAvailability jobAvailability, ActiveJobIndex activeJobIndex) {
+        this.dataSource = dataSource;
+        this.jobAvailability = jobAvailability;
+        this.activeJobIndex = activeJobIndex;
+    }
+
+    @EventListener
+    synchronized void onStartup(StartupEvent event) {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::listen, "job-notification-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    synchronized void stop() throws InterruptedException {
+        running = false;
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    private void listen() {
+        while (running) {
+            try (Connection con = dataSource.getConnection()) {
+                try {
+                    try (Statement stmt = con.createStatement()) {
+                        stmt.execute("LISTEN " + JOB_AVAILABLE_CHANNEL);
+                        stmt.execute("LISTEN " + JOB_INACTIVE_CHANNEL);
+                    }
+                    // jobs may have become available or inactive while we weren't listening
+                    jobAvailability.signalAll();
+                    activeJobIndex.clear();
+                    PGConnection pgConnection = con.unwrap(PGConnection.class);
+                    while (running) {
+                        PGNotification[] notifications = pgConnection.getNotifications(1000);
+                        if (notifications != null) {
+                            for (PGNotification notification : notifications) {
+                                dispatch(notification);
+                            }
+                        }
+                    }
+                } finally {
+                    // the connection goes back to the pool, so it must stop receiving notifications
+                    try (Statement stmt = con.createStatement()) {
+                        stmt.execute("UNLISTEN *");
+                    }
+                }
+            } catch (SQLException e) {
+                if (running) {
+                    log.warn("Failure when listening for job notifications, reconnecting", e);
+                    sleepBeforeReconnect();
+                }
+            }
+        }
+    }
+
+    private void dispatch(PGNotification notification) {
+        switch (notification.getName()) {
+            case JOB_AVAILABLE_CHANNEL -> jobAvailability.signal(notification.getParameter());
+            case JOB_INACTIVE_CHANNEL -> activeJobIndex.invalidate(notification.getParameter());
+            default -> log.warn("Got notification on unexpected channel: {}", notification.getName());
+        }
+    }
+
+    private void sleepBeforeReconnect() {
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
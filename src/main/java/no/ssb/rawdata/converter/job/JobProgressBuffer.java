@@ -0,0 +1,58 @@
+package no.ssb.rawdata.converter.job;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micronaut.scheduling.annotation.Scheduled;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Singleton;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the latest position reported by converters for each job, and saves them as checkpoints every
+ * boss.job.progress.flush-interval with one statement. Reports that arrive between two flushes only overwrite each
+ * other in memory, so frequent reports cost one row update per job per flush. A position that is reported but not yet
+ * flushed when the boss stops is lost, and the job resumes from the checkpoint before it.
+ */
+@Singleton
+@Slf4j
+public class JobProgressBuffer {
+
+    private final JobRepository repository;
+    private final Timer timer;
+    private final Map<Job.Key, String> pending = new ConcurrentHashMap<>();
+
+    public JobProgressBuffer(JobRepository repository, MeterRegistry meterRegistry) {
+        this.repository = repository;
+        this.timer = ReactiveJobRepository.timer(meterRegistry, "saveCheckpoints");
+    }
+
+    public void report(String id, String source, String position) {
+        pending.put(Job.Key.of(id, source), position);
+    }
+
+    @Scheduled(fixedDelay = "${boss.job.progress.flush-interval:1s}")
+    @PreDestroy
+    void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<Job.Key, String> batch = new HashMap<>();
+        for (Map.Entry<Job.Key, String> entry : pending.entrySet()) {
+            // a position reported meanwhile stays, and is saved by the next flush
+            if (pending.remove(entry.getKey(), entry.getValue())) {
+                batch.put(entry.getKey(), entry.getValue());
+            }
+        }
+        try {
+            int saved = timer.recordCallable(() -> repository.saveCheckpoints(batch));
+            log.debug("Saved {} checkpoint(s) of {} reported", saved, batch.size());
+        } catch (Exception e) {
+            log.warn("Failed to save {} checkpoint(s), will retry", batch.size(), e);
+            batch.forEach(pending::putIfAbsent);
+        }
+    }
+}
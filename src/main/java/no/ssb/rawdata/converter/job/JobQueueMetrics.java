@@ -0,0 +1,96 @@
+package no.ssb.rawdata.converter.job;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micronaut.scheduling.annotation.Scheduled;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Singleton;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue depth gauges per source and status (boss.job.queue.depth). The gauges are updated by counting the jobs every
+ * boss.metrics.queue-sample-interval, rather than for every scrape.
+ */
+@Singleton
+@Slf4j
+public class JobQueueMetrics {
+
+    private final JobRepository repository;
+    private final MeterRegistry meterRegistry;
+    private final Timer timer;
+
+    private final Map<String, AtomicLong> depths = new ConcurrentHashMap<>();
+    private final Map<Job.Status, Map<String, Long>> lastSample = new ConcurrentHashMap<>();
+    private final AtomicLong sampleCount = new AtomicLong();
+
+    public JobQueueMetrics(JobRepository repository, MeterRegistry meterRegistry) {
+        this.repository = repository;
+        this.meterRegistry = meterRegistry;
+        this.timer = ReactiveJobRepository.timer(meterRegistry, "countJobs");
+    }
+
+    @Scheduled(fixedDelay = "${boss.metrics.queue-sample-interval:15s}")
+    void sample() {
+        Map<String, Map<Job.Status, Long>> counts;
+        try {
+            counts = timer.recordCallable(repository::countJobs);
+        } catch (Exception e) {
+            log.warn("Failed to sample queue depths", e);
+            return;
+        }
+        Set<String> sampled = new HashSet<>();
+        Map<Job.Status, Map<String, Long>> sample = new EnumMap<>(Job.Status.class);
+        counts.forEach((source, countByStatus) -> countByStatus.forEach((status, count) -> {
+            depth(source, status).set(count);
+            sampled.add(key(source, status));
+            sample.computeIfAbsent(status, s -> new HashMap<>()).put(source, count);
+        }));
+        for (Job.Status status : Job.Status.values()) {
+            lastSample.put(status, sample.getOrDefault(status, Map.of()));
+        }
+        sampleCount.incrementAndGet();
+        // a source with no jobs left in a status should go to 0, not keep its last value
+        depths.forEach((key, depth) -> {
+            if (!sampled.contains(key)) {
+                depth.set(0);
+            }
+        });
+    }
+
+    /**
+     * The number of jobs in the status per source, as of the last sample.
+     */
+    Map<String, Long> depths(Job.Status status) {
+        return lastSample.getOrDefault(status, Map.of());
+    }
+
+    /**
+     * Increases with every sample, so that users of {@link #depths(Job.Status)} can tell when it has changed.
+     */
+    long sampleCount() {
+        return sampleCount.get();
+    }
+
+    private static String key(String source, Job.Status status) {
+        return source + "/" + status;
+    }
+
+    private AtomicLong depth(String source, Job.Status status) {
+        return depths.computeIfAbsent(key(source, status), key -> {
+            AtomicLong depth = new AtomicLong();
+            Gauge.builder("boss.job.queue.depth", depth, AtomicLong::get)
+                    .tag("source", source)
+                    .tag("status", status.name())
+                    .register(meterRegistry);
+            return depth;
+        });
+    }
+}
@@ -1,164 +1,167 @@
 package no.ssb.rawdata.converter.job;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import lombok.extern.slf4j.Slf4j;
-import org.postgresql.util.PGobject;
-
-import javax.inject.Inject;
-import javax.inject.Named;
-import javax.inject.Singleton;
-import javax.sql.DataSource;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.ArrayList;
+import java.time.Duration;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-@Singleton
-@Slf4j
-public class JobRepository {
+/**
+ * Where the jobs are kept. {@link PostgresJobRepository} is used unless boss.repository is set to embedded, which
+ * selects {@link EmbeddedJobRepository}.
+ */
+public interface JobRepository {
 
-    @Inject
-    @Named("default")
-    private final DataSource dataSource;
+    default Job readJob(String id, Job.Status status, String source) {
+        return readJob(id, status, source, false);
+    }
+
+    /**
+     * Like {@link #readJob(String, Job.Status, String)}, but also finds jobs that have been archived.
+     */
+    Job readJob(String id, Job.Status status, String source, boolean includeArchived);
 
-    public JobRepository(DataSource dataSource) {
-        this.dataSource = dataSource;
+    default Job findAvailableJob() {
+        return findAvailableJob(null, null);
     }
 
-    public Job readJob(String id, Job.Status status, String source) {
-        try (Connection con = dataSource.getConnection()) {
-            PreparedStatement ps = con.prepareStatement("SELECT * FROM job WHERE id=? AND status=? AND source=?");
-            ps.setString(1, id);
-            ps.setString(2, status.toString());
-            ps.setString(3, source);
-            ResultSet rs = ps.executeQuery();
-            if (!rs.next()) {
-                return null;
-            }
-            return Job.create(
-                    rs.getString("id"),
-                    Job.Status.get(rs.getString("status")),
-                    rs.getString("source"),
-                    new ObjectMapper().readValue(rs.getString("document"), Job.Document.class)
-            );
-        } catch (Exception e) {
-            throw new RuntimeException("Could not read job, id: %s".formatted(id), e);
-        }
+    default Job findAvailableJob(String source) {
+        return findAvailableJob(source, null);
     }
 
-    public Job findAvailableJob() {
-        try (Connection con = dataSource.getConnection()) {
-            String sql = """
-                    UPDATE job
-                    SET status = 'ACTIVE'
-                    WHERE id =
-                        (SELECT id FROM job WHERE status = 'AVAILABLE' ORDER BY id LIMIT 1)
-                    RETURNING *                    
-                    """;
-            Statement stmt = con.createStatement();
-            ResultSet rs = stmt.executeQuery(sql);
-            if (!rs.next()) {
-                return null;
-            }
-            return Job.create(
-                    rs.getString("id"),
-                    Job.Status.get(rs.getString("status")),
-                    rs.getString("source"),
-                    new ObjectMapper().readValue(rs.getString("document"), Job.Document.class)
-            );
-        } catch (Exception e) {
-            throw new RuntimeException("Failure when trying to find available job", e);
-        }
+    default Job findAvailableJob(String source, String claimant) {
+        List<Job> jobs = findAvailableJobs(source, claimant, 1);
+        return jobs.isEmpty() ? null : jobs.get(0);
+    }
+
+    List<Job> findAvailableJobs(String source, String claimant, int max);
+
+    /**
+     * Claims up to max available jobs, optionally restricted to a source, and leases them to the claimant. Jobs are
+     * claimed in order of their rank: their creation time, moved back by boss.job.priority-aging-step for each level
+     * of priority. So no job goes ahead of jobs created more than 100 aging steps before it.
+     */
+    default List<RawJob> findAvailableRawJobs(String source, String claimant, int max) {
+        return findAvailableRawJobs(source, List.of(), claimant, max);
     }
 
-    public Job findAvailableJob(String source) {
-        try (Connection con = dataSource.getConnection()) {
-            String sql = """
-                    UPDATE job
-                    SET status = 'ACTIVE'
-                    WHERE id =
-                        (SELECT id FROM job WHERE status = 'AVAILABLE' AND source = ? ORDER BY id LIMIT 1)
-                    RETURNING *                    
-                    """;
-            PreparedStatement ps = con.prepareStatement(sql);
-            ps.setString(1, source);
-            ResultSet rs = ps.executeQuery();
-            if (!rs.next()) {
-                return null;
-            }
-            return Job.create(
-                    rs.getString("id"),
-                    Job.Status.get(rs.getString("status")),
-                    rs.getString("source"),
-                    new ObjectMapper().readValue(rs.getString("document"), Job.Document.class)
-            );
-        } catch (Exception e) {
-            throw new RuntimeException("Failure when trying to find available job, source: %s".formatted(source), e);
-        }
+    /**
+     * Like {@link #findAvailableRawJobs(String, String, int)}, but never claims jobs of the excluded sources.
+     */
+    List<RawJob> findAvailableRawJobs(String source, Collection<String> excludedSources, String claimant, int max);
+
+    /**
+     * Like {@link #findAvailableRawJobs(String, Collection, String, int)}, but only claims jobs whose document matches
+     * the affinity. Callers fall back to claiming any job when none match.
+     */
+    List<RawJob> findAvailableRawJobs(String source, Collection<String> excludedSources, Job.Affinity affinity, String claimant, int max);
+
+    /**
+     * Extends the lease of an active job. Returns the number of jobs updated, i.e. 0 if the job isn't active.
+     */
+    int renewLease(String id, String source);
+
+    /**
+     * Extends the leases of the jobs that are active, all at once. Returns the ids of those jobs.
+     */
+    Set<String> renewLeases(Collection<Job.Key> jobs);
+
+    /**
+     * Puts active jobs whose lease has expired back as available, so that jobs held by a dead converter are
+     * picked up by another one.
+     */
+    int releaseExpiredLeases();
+
+    default int createJob(String id, String source, Job.Document document) {
+        return createJob(id, source, Job.DEFAULT_PRIORITY, document);
     }
 
-    public int createJob(String id, String source, Job.Document document) {
-        PGobject pgObject;
-        try {
-            pgObject = new PGobject();
-            pgObject.setType("jsonb");
-            pgObject.setValue(new ObjectMapper().writeValueAsString(document));
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to create postgres json object from job: %s".formatted(document), e);
-        }
-        try (Connection con = dataSource.getConnection()) {
-            PreparedStatement ps = con.prepareStatement("INSERT INTO job (id,status,source,document) VALUES (?,?,?,?) ON CONFLICT (id) DO NOTHING");
-            ps.setString(1, id);
-            ps.setString(2, Job.Status.AVAILABLE.toString());
-            ps.setString(3, source);
-            ps.setObject(4, pgObject);
-            return ps.executeUpdate();
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to create job, id: %s, source: %s, document: %s".formatted(id, source, document), e);
-        }
+    /**
+     * Returns 1 if the job was created, or 0 if there already is a job with that id, archived or not.
+     */
+    int createJob(String id, String source, int priority, Job.Document document);
+
+    /**
+     * Creates the job unless there is a job that isn't done with the same fingerprint (see
+     * {@link Job.Document#fingerprint(String)}). Returns the outcome, which is DUPLICATE with the id of that job if
+     * there is one.
+     */
+    default Job.SubmissionResult createUniqueJob(String id, String source, int priority, Job.Document document) {
+        Job.Submission submission = new Job.Submission();
+        submission.setId(id);
+        submission.setSource(source);
+        submission.setPriority(priority);
+        submission.setDocument(document);
+        return createJobs(List.of(submission), true).get(0);
     }
 
-    public int jobDone(String id, String source) {
-        try (Connection con = dataSource.getConnection()) {
-            PreparedStatement ps = con.prepareStatement("UPDATE job SET status = 'DONE' WHERE id = ? AND source = ?");
-            ps.setString(1, id);
-            ps.setString(2, source);
-            return ps.executeUpdate();
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to mark job as done, id: %s, source: %s".formatted(id, source), e);
-        }
+    /**
+     * Creates all submitted jobs at once. Submissions without an id are given one. Returns the outcome of every
+     * submission, in order.
+     */
+    default List<Job.SubmissionResult> createJobs(Iterable<Job.Submission> submissions) {
+        return createJobs(submissions, false);
     }
 
-    List<Job> readAllJobs() {
-        try (Connection con = dataSource.getConnection()) {
-            Statement stmt = con.createStatement();
-            ResultSet rs = stmt.executeQuery("SELECT * FROM job ORDER BY id");
-            List<Job> jobs = new ArrayList<>();
-            while (rs.next()) {
-                jobs.add(
-                        Job.create(
-                                rs.getString("id"),
-                                Job.Status.get(rs.getString("status")),
-                                rs.getString("source"),
-                                new ObjectMapper().readValue(rs.getString("document"), Job.Document.class)
-                        )
-                );
-            }
-            return jobs;
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to read jobs", e);
-        }
+    /**
+     * Like {@link #createJobs(Iterable)}, but if unique, like {@link #createUniqueJob(String, String, int, Job.Document)}
+     * for every submission, also between the submissions.
+     */
+    List<Job.SubmissionResult> createJobs(Iterable<Job.Submission> submissions, boolean unique);
+
+    /**
+     * Creates a job that is split into shards over position ranges, one shard more than there are boundaries (see
+     * {@link Job.Document#shards(List)}). The shards are claimed like any other job, while the job itself has status
+     * SHARDED until all its shards are done. Returns the ids of the shards, or an empty list if there already is a job
+     * with that id.
+     */
+    List<String> createShardedJob(String id, String source, int priority, Job.Document document, List<String> boundaries);
+
+    /**
+     * Returns 1 if the job was marked as done, or 0 if there's no such job.
+     */
+    default int jobDone(String id, String source) {
+        return jobsDone(List.of(Job.Key.of(id, source))).isEmpty() ? 0 : 1;
     }
 
-    int deleteAllJobs() {
-        try (Connection con = dataSource.getConnection()) {
-            Statement stmt = con.createStatement();
-            return stmt.executeUpdate("TRUNCATE TABLE job");
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to delete jobs", e);
-        }
+    /**
+     * Marks the jobs as done, all at once. Returns the ids of the jobs that were found. Marking a sharded job as done
+     * also marks its shards as done, and the last of its shards to be done marks the sharded job as done.
+     */
+    Set<String> jobsDone(Collection<Job.Key> jobs);
+
+    /**
+     * Opens a cursor over up to limit jobs with ids after the given id, in id order, optionally only those with the
+     * status and the source. Passing the id of the last job read as after gives the next page. The cursor must be
+     * closed.
+     */
+    JobCursor listJobs(Job.Status status, String source, String after, int limit);
+
+    /**
+     * Saves the positions as the checkpoints of the jobs that are active, so that the next claim of a job resumes from
+     * its checkpoint instead of its initial position. Returns the number of jobs with a new checkpoint.
+     */
+    int saveCheckpoints(Map<Job.Key, String> positions);
+
+    /**
+     * Archives up to batchSize jobs that have been done for longer than the retention. Returns the number of jobs
+     * archived. A job whose id is already archived is left in place, so that the archive never drops a job.
+     */
+    int archiveDoneJobs(Duration retention, int batchSize);
+
+    /**
+     * Counts jobs per source and status, for the queue depth gauges sampled by {@link JobQueueMetrics}.
+     */
+    Map<String, Map<Job.Status, Long>> countJobs();
+
+    default List<Job> readAllJobs() {
+        return readAllJobs(false);
     }
+
+    List<Job> readAllJobs(boolean includeArchived);
+
+    /**
+     * Deletes all jobs, archived ones included. For tests and benchmarks.
+     */
+    int deleteAllJobs();
 }
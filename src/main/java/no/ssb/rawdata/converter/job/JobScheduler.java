@@ -0,0 +1,223 @@
+package no.ssb.rawdata.converter.job;
+
+import io.micronaut.context.annotation.Value;
+
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Decides which source a claim without a source gets its jobs from, sharing claims between the sources with available
+ * jobs according to their weights (stride scheduling: every source has a pass that grows by 1/weight per claimed job,
+ * and the source with the lowest pass goes first). Sources at their max active jobs are skipped.
+ * <p>
+ * Which sources have available and active jobs is known from the samples taken by {@link JobQueueMetrics}, plus the
+ * jobs claimed here since the last sample. So the limit on active jobs is approximate across boss instances, and
+ * sources that got their first jobs after the last sample are only found by the fallback claim from any source.
+ */
+@Singleton
+public class JobScheduler {
+
+    private final JobRepository repository;
+    private final JobQueueMetrics queueMetrics;
+    private final boolean enabled;
+    private final Map<String, JobSourceConfiguration> sources;
+
+    private final Map<String, Double> passes = new HashMap<>();
+    private final Map<String, Long> claimedSinceSample = new HashMap<>();
+    private double virtualTime;
+    private long sampleCount = -1;
+
+    public JobScheduler(JobRepository repository,
+                        JobQueueMetrics queueMetrics,
+                        List<JobSourceConfiguration> sources,
+                        @Value("${boss.job.scheduler.enabled:true}") boolean enabled) {
+        this.repository = repository;
+        this.queueMetrics = queueMetrics;
+        this.enabled = enabled;
+        this.sources = sources.stream().collect(Collectors.toMap(JobSourceConfiguration::getName, Function.identity()));
+    }
+
+    /**
+     * Claims up to max jobs from the source whose turn it is, trying the next source if it has no available jobs left
+     * after all, and finally any source that isn't at its max active jobs.
+     */
+    public List<RawJob> findAvailableJobs(String claimant, int max) {
+        return findAvailableJobsInTurn(claimant, max);
+    }
+
+    /**
+     * Like {@link #findAvailableJobs(String, int)}, but first claims jobs that match the affinity from any source that
+     * isn't at its max active jobs, whoever's turn it is. If fewer than max jobs match, the rest are claimed as usual.
+     */
+    public List<RawJob> findAvailableJobs(Job.Affinity affinity, String claimant, int max) {
+        if (affinity.isEmpty()) {
+            return findAvailableJobsInTurn(claimant, max);
+        }
+        List<RawJob> jobs = new ArrayList<>();
+        if (enabled) {
+            int limit;
+            Set<String> saturated;
+            synchronized (this) {
+                Map<String, Long> active = activeJobs();
+                limit = anySourceClaimLimit(max, active);
+                saturated = saturatedSources(active);
+            }
+            for (RawJob job : repository.findAvailableRawJobs(null, saturated, affinity, claimant, limit)) {
+                claimed(job.getSource(), 1);
+                jobs.add(job);
+            }
+        } else {
+            jobs.addAll(repository.findAvailableRawJobs(null, Set.of(), affinity, claimant, max));
+        }
+        if (jobs.size() < max) {
+            // the matching jobs are active now, so they aren't claimed again
+            jobs.addAll(findAvailableJobsInTurn(claimant, max - jobs.size()));
+        }
+        return jobs;
+    }
+
+    private List<RawJob> findAvailableJobsInTurn(String claimant, int max) {
+        if (!enabled) {
+            return repository.findAvailableRawJobs(null, claimant, max);
+        }
+        for (String source : nextSources()) {
+            int limit = claimLimit(source, max);
+            if (limit < 1) {
+                continue;
+            }
+            List<RawJob> jobs = repository.findAvailableRawJobs(source, claimant, limit);
+            if (!jobs.isEmpty()) {
+                claimed(source, jobs.size());
+                return jobs;
+            }
+        }
+        return findAvailableJobsFromAnySource(claimant, max);
+    }
+
+    /**
+     * Claims from any source that isn't at its max active jobs, never more at a time than the source closest to its
+     * max can take, since they could all be from that source. Claims again until max jobs are claimed or there are no
+     * more, as sources reach their max.
+     */
+    private List<RawJob> findAvailableJobsFromAnySource(String claimant, int max) {
+        List<RawJob> claimed = new ArrayList<>();
+        while (claimed.size() < max) {
+            int limit;
+            Set<String> saturated;
+            synchronized (this) {
+                Map<String, Long> active = activeJobs();
+                limit = anySourceClaimLimit(max - claimed.size(), active);
+                saturated = saturatedSources(active);
+            }
+            List<RawJob> jobs = repository.findAvailableRawJobs(null, saturated, claimant, limit);
+            for (RawJob job : jobs) {
+                claimed(job.getSource(), 1);
+                claimed.add(job);
+            }
+            if (jobs.size() < limit) {
+                break;
+            }
+        }
+        return claimed;
+    }
+
+    private synchronized List<String> nextSources() {
+        if (queueMetrics.sampleCount() != sampleCount) {
+            sampleCount = queueMetrics.sampleCount();
+            claimedSinceSample.clear();
+        }
+        Map<String, Long> available = new HashMap<>(queueMetrics.depths(Job.Status.AVAILABLE));
+        claimedSinceSample.forEach((source, claimed) -> available.computeIfPresent(source, (s, count) -> count - claimed));
+        return nextSources(available, activeJobs());
+    }
+
+    private Set<String> saturatedSources(Map<String, Long> active) {
+        Set<String> saturated = new HashSet<>();
+        for (JobSourceConfiguration source : sources.values()) {
+            if (isSaturated(source.getName(), active)) {
+                saturated.add(source.getName());
+            }
+        }
+        return saturated;
+    }
+
+    private Map<String, Long> activeJobs() {
+        Map<String, Long> active = new HashMap<>(queueMetrics.depths(Job.Status.ACTIVE));
+        claimedSinceSample.forEach((source, claimed) -> active.merge(source, claimed, Long::sum));
+        return active;
+    }
+
+    /**
+     * The sources with available jobs that aren't at their max active jobs, in the order they should be tried.
+     */
+    synchronized List<String> nextSources(Map<String, Long> available, Map<String, Long> active) {
+        List<String> candidates = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : available.entrySet()) {
+            String source = entry.getKey();
+            if (entry.getValue() > 0 && !isSaturated(source, active)) {
+                // a source that has been without available jobs doesn't get to catch up on the claims it missed
+                passes.merge(source, virtualTime, Math::max);
+                candidates.add(source);
+            }
+        }
+        candidates.sort(Comparator.<String>comparingDouble(passes::get).thenComparing(Comparator.naturalOrder()));
+        return candidates;
+    }
+
+    private synchronized int claimLimit(String source, int max) {
+        return claimLimit(source, max, activeJobs());
+    }
+
+    /**
+     * How many of max jobs can be claimed from the source without going over its max active jobs.
+     */
+    int claimLimit(String source, int max, Map<String, Long> active) {
+        JobSourceConfiguration configuration = sources.get(source);
+        if (configuration == null || configuration.getMaxActive() == null) {
+            return max;
+        }
+        return (int) Math.max(0, Math.min(max, configuration.getMaxActive() - active.getOrDefault(source, 0L)));
+    }
+
+    /**
+     * How many of max jobs can be claimed from sources that aren't at their max active jobs, without any of them going
+     * over it.
+     */
+    int anySourceClaimLimit(int max, Map<String, Long> active) {
+        int limit = max;
+        for (JobSourceConfiguration source : sources.values()) {
+            int sourceLimit = claimLimit(source.getName(), max, active);
+            if (sourceLimit > 0) {
+                limit = Math.min(limit, sourceLimit);
+            }
+        }
+        return limit;
+    }
+
+    synchronized void claimed(String source, int count) {
+        double pass = passes.getOrDefault(source, virtualTime);
+        virtualTime = Math.max(virtualTime, pass);
+        passes.put(source, pass + (double) count / weight(source));
+        claimedSinceSample.merge(source, (long) count, Long::sum);
+    }
+
+    private boolean isSaturated(String source, Map<String, Long> active) {
+        JobSourceConfiguration configuration = sources.get(source);
+        return configuration != null
+                && configuration.getMaxActive() != null
+                && active.getOrDefault(source, 0L) >= configuration.getMaxActive();
+    }
+
+    private int weight(String source) {
+        JobSourceConfiguration configuration = sources.get(source);
+        return configuration == null ? 1 : Math.max(1, configuration.getWeight());
+    }
+}
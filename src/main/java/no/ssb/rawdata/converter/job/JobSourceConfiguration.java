@@ -0,0 +1,38 @@
+package no.ssb.rawdata.converter.job;
+
+import io.micronaut.context.annotation.EachProperty;
+import io.micronaut.context.annotation.Parameter;
+import lombok.Data;
+
+/**
+ * Scheduling configuration of a source, e.g.
+ * <pre>
+ * boss.job.sources:
+ *   freg:
+ *     weight: 1
+ *     max-active: 10
+ *   altinn3:
+ *     weight: 3
+ * </pre>
+ * Sources that aren't configured get weight 1 and no limit on active jobs.
+ */
+@EachProperty("boss.job.sources")
+@Data
+public class JobSourceConfiguration {
+
+    private final String name;
+
+    /**
+     * The share of claims the source gets, relative to the other sources with available jobs.
+     */
+    private int weight = 1;
+
+    /**
+     * The maximum number of active jobs of the source, or null for no limit.
+     */
+    private Integer maxActive;
+
+    public JobSourceConfiguration(@Parameter String name) {
+        this.name = name;
+    }
+}
@@ -0,0 +1,811 @@
+package no.ssb.rawdata.converter.job;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.huxhorn.sulky.ulid.ULID;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The jobs are kept in the job table in Postgres, so any number of boss instances can share them.
+ */
+@Singleton
+@Requires(property = "boss.repository", value = "postgres", defaultValue = "postgres")
+@Slf4j
+public class PostgresJobRepository implements JobRepository {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final String JOB_COLUMNS = "id, status, source, document, claimed_by, claimed_at, leased_until, created_at, done_at, priority, claim_rank, checkpoint, checkpointed_at, parent_id, shards_pending, pseudo_config_hash, fingerprint";
+
+    /**
+     * Inserts the pseudo configs of the jobs being inserted, given as an array of hashes and an array of configs, in the
+     * same statement as the jobs.
+     */
+    private static final String INSERT_PSEUDO_CONFIGS = """
+            WITH pseudo_configs AS (
+                INSERT INTO pseudo_config (hash, config)
+                SELECT c.hash, c.config::jsonb FROM unnest(?::varchar[], ?::text[]) AS c(hash, config)
+                ON CONFLICT (hash) DO NOTHING
+            )
+            """;
+
+    @Inject
+    @Named("default")
+    private final DataSource dataSource;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Duration leaseDuration;
+
+    private final int bulkChunkSize;
+
+    private final Duration priorityAgingStep;
+
+    private final int listFetchSize;
+
+    private final PseudoConfigCache pseudoConfigs;
+
+    public PostgresJobRepository(DataSource dataSource,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${boss.job.lease-duration:10m}") Duration leaseDuration,
+                                 @Value("${boss.job.bulk-chunk-size:1000}") int bulkChunkSize,
+                                 @Value("${boss.job.priority-aging-step:1m}") Duration priorityAgingStep,
+                                 @Value("${boss.job.list.fetch-size:500}") int listFetchSize,
+                                 @Value("${boss.job.pseudo-config.cache-size:1000}") int pseudoConfigCacheSize) {
+        this.dataSource = dataSource;
+        this.meterRegistry = meterRegistry;
+        this.leaseDuration = leaseDuration;
+        this.bulkChunkSize = bulkChunkSize;
+        this.priorityAgingStep = priorityAgingStep;
+        this.listFetchSize = listFetchSize;
+        this.pseudoConfigs = new PseudoConfigCache(pseudoConfigCacheSize);
+    }
+
+    @Override
+    public Job readJob(String id, Job.Status status, String source, boolean includeArchived) {
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement ps = con.prepareStatement(includeArchived ? """
+                    SELECT %1$s FROM job WHERE id=? AND status=? AND source=?
+                    UNION ALL
+                    SELECT %1$s FROM job_archive WHERE id=? AND status=? AND source=?
+                    """.formatted(JOB_COLUMNS) : "SELECT * FROM job WHERE id=? AND status=? AND source=?");
+            ps.setString(1, id);
+            ps.setString(2, status.toString());
+            ps.setString(3, source);
+            if (includeArchived) {
+                ps.setString(4, id);
+                ps.setString(5, status.toString());
+                ps.setString(6, source);
+            }
+            ResultSet rs = ps.executeQuery();
+            if (!rs.next()) {
+                return null;
+            }
+            return toJob(con, rs);
+        } catch (Exception e) {
+            throw new RuntimeException("Could not read job, id: %s".formatted(id), e);
+        }
+    }
+
+    @Override
+    public List<Job> findAvailableJobs(String source, String claimant, int max) {
+        List<Job> jobs = new ArrayList<>();
+        try {
+            for (RawJob rawJob : findAvailableRawJobs(source, claimant, max)) {
+                jobs.add(rawJob.toJob(OBJECT_MAPPER));
+            }
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to map claimed job document", e);
+        }
+        return jobs;
+    }
+
+    /**
+     * Claims in one statement. Rows already locked by a concurrent claim are skipped rather than waited on, so
+     * concurrent claimers are handed different jobs without blocking each other. A job with a checkpoint is returned
+     * with the checkpoint as the initial position of its document, and with its pseudo config from the cache.
+     */
+    @Override
+    public List<RawJob> findAvailableRawJobs(String source, Collection<String> excludedSources, String claimant, int max) {
+        return claim(source, excludedSources, Job.Affinity.none(), claimant, max);
+    }
+
+    /**
+     * The storage root and topic of available jobs are indexed, see V12__add-job-affinity-index.sql.
+     */
+    @Override
+    public List<RawJob> findAvailableRawJobs(String source, Collection<String> excludedSources, Job.Affinity affinity, String claimant, int max) {
+        return claim(source, excludedSources, affinity, claimant, max);
+    }
+
+    private List<RawJob> claim(String source, Collection<String> excludedSources, Job.Affinity affinity, String claimant, int max) {
+        try (Connection con = dataSource.getConnection()) {
+            StringBuilder conditions = new StringBuilder();
+            if (source != null) {
+                conditions.append(" AND source = ?");
+            }
+            if (!excludedSources.isEmpty()) {
+                conditions.append(" AND source <> ALL (?)");
+            }
+            if (affinity.getStorageRoot() != null) {
+                conditions.append(" AND document ->> 'storageRoot' = ?");
+            }
+            if (affinity.getTopic() != null) {
+                conditions.append(" AND document ->> 'topic' = ?");
+            }
+            String sql = """
+                    WITH claimed AS (
+                        UPDATE job
+                        SET status = 'ACTIVE', claimed_by = ?, claimed_at = now(), leased_until = now() + make_interval(secs => ?)
+                        WHERE id IN
+                            (SELECT id FROM job WHERE status = 'AVAILABLE'%s ORDER BY claim_rank, id LIMIT ? FOR UPDATE SKIP LOCKED)
+                        RETURNING *
+                    )
+                    SELECT id, status, source, created_at, claimed_at, pseudo_config_hash,
+                        CASE WHEN checkpoint IS NULL THEN document ELSE jsonb_set(document, '{initialPosition}', to_jsonb(checkpoint)) END AS document
+                    FROM claimed ORDER BY claim_rank, id
+                    """.formatted(conditions);
+            PreparedStatement ps = con.prepareStatement(sql);
+            int i = 1;
+            ps.setString(i++, claimant);
+            ps.setDouble(i++, leaseDuration.toMillis() / 1000d);
+            if (source != null) {
+                ps.setString(i++, source);
+            }
+            if (!excludedSources.isEmpty()) {
+                ps.setArray(i++, con.createArrayOf("varchar", excludedSources.toArray()));
+            }
+            if (affinity.getStorageRoot() != null) {
+                ps.setString(i++, affinity.getStorageRoot());
+            }
+            if (affinity.getTopic() != null) {
+                ps.setString(i++, affinity.getTopic());
+            }
+            ps.setInt(i, max);
+            ResultSet rs = ps.executeQuery();
+            List<RawJob> jobs = new ArrayList<>();
+            while (rs.next()) {
+                jobs.add(toRawJob(con, rs));
+                recordTimeInState("boss.job.available.time", rs.getString("source"), rs.getTimestamp("created_at"), rs.getTimestamp("claimed_at"));
+            }
+            return jobs;
+        } catch (Exception e) {
+            throw new RuntimeException("Failure when trying to find available jobs, source: %s, affinity: %s".formatted(source, affinity), e);
+        }
+    }
+
+    @Override
+    public int renewLease(String id, String source) {
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement ps = con.prepareStatement("UPDATE job SET leased_until = now() + make_interval(secs => ?) WHERE id = ? AND source = ? AND status = 'ACTIVE'");
+            ps.setDouble(1, leaseDuration.toMillis() / 1000d);
+            ps.setString(2, id);
+            ps.setString(3, source);
+            return ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to renew lease, id: %s, source: %s".formatted(id, source), e);
+        }
+    }
+
+    @Override
+    public Set<String> renewLeases(Collection<Job.Key> jobs) {
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement ps = con.prepareStatement("""
+                    UPDATE job SET leased_until = now() + make_interval(secs => ?)
+                    FROM unnest(?::varchar[], ?::varchar[]) AS t(id, source)
+                    WHERE job.id = t.id AND job.source = t.source AND job.status = 'ACTIVE'
+                    RETURNING job.id
+                    """);
+            ps.setDouble(1, leaseDuration.toMillis() / 1000d);
+            setKeys(con, ps, 2, jobs);
+            ResultSet rs = ps.executeQuery();
+            Set<String> renewed = new HashSet<>();
+            while (rs.next()) {
+                renewed.add(rs.getString("id"));
+            }
+            return renewed;
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to renew leases of %d jobs".formatted(jobs.size()), e);
+        }
+    }
+
+    @Override
+    public int releaseExpiredLeases() {
+        try (Connection con = dataSource.getConnection()) {
+            Statement stmt = con.createStatement();
+            return stmt.executeUpdate("""
+                    UPDATE job
+                    SET status = 'AVAILABLE', claimed_by = NULL, claimed_at = NULL, leased_until = NULL
+                    WHERE status = 'ACTIVE' AND leased_until < now()
+                    """);
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to release expired leases", e);
+        }
+    }
+
+    @Override
+    public int createJob(String id, String source, int priority, Job.Document document) {
+        String json;
+        PseudoConfigCache.Entry pseudoConfig;
+        try {
+            json = toJson(document);
+            pseudoConfig = PseudoConfigCache.Entry.of(OBJECT_MAPPER, document.getPseudoConfig());
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to create json from job: %s".formatted(document), e);
+        }
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement ps = con.prepareStatement(INSERT_PSEUDO_CONFIGS + """
+                    INSERT INTO job (id, status, source, document, priority, claim_rank, pseudo_config_hash)
+                    SELECT ?, ?, ?, ?::jsonb, ?, now() - make_interval(secs => ?), ?
+                    WHERE NOT EXISTS (SELECT 1 FROM job_archive WHERE id = ?)
+                    ON CONFLICT (id) DO NOTHING
+                    """);
+            setPseudoConfigs(con, ps, 1, pseudoConfig == null ? List.of() : List.of(pseudoConfig));
+            ps.setString(3, id);
+            ps.setString(4, Job.Status.AVAILABLE.toString());
+            ps.setString(5, source);
+            ps.setString(6, json);
+            ps.setInt(7, priority);
+            ps.setDouble(8, priority * priorityAgingStep.toMillis() / 1000d);
+            ps.setString(9, pseudoConfig == null ? null : pseudoConfig.getHash());
+            ps.setString(10, id);
+            return ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to create job, id: %s, source: %s, document: %s".formatted(id, source, document), e);
+        }
+    }
+
+    /**
+     * All jobs are inserted in one transaction, in chunks of boss.job.bulk-chunk-size with a single statement per chunk.
+     * Unique jobs are inserted with their fingerprint, and the job_fingerprint_idx unique index skips duplicates, which
+     * are then looked up with a single statement per chunk.
+     */
+    @Override
+    public List<Job.SubmissionResult> createJobs(Iterable<Job.Submission> submissions, boolean unique) {
+        List<Job.SubmissionResult> results = new ArrayList<>();
+        try (Connection con = dataSource.getConnection()) {
+            con.setAutoCommit(false);
+            try {
+                List<Job.Submission> chunk = new ArrayList<>(bulkChunkSize);
+                // where the results of the chunk go, so that they are in the order of the submissions
+                List<Integer> slots = new ArrayList<>(bulkChunkSize);
+                for (Job.Submission submission : submissions) {
+                    if (submission.getId() == null) {
+                        submission.setId(new ULID().nextULID());
+                    }
+                    if (!Job.Submission.isValid(submission)) {
+                        results.add(Job.SubmissionResult.of(submission.getId(), submission.getSource(), Job.SubmissionResult.Outcome.INVALID));
+                        continue;
+                    }
+                    slots.add(results.size());
+                    results.add(null);
+                    chunk.add(submission);
+                    if (chunk.size() == bulkChunkSize) {
+                        fill(results, slots, insertChunk(con, chunk, unique));
+                        chunk.clear();
+                        slots.clear();
+                    }
+                }
+                if (!chunk.isEmpty()) {
+                    fill(results, slots, insertChunk(con, chunk, unique));
+                }
+                con.commit();
+            } catch (Exception e) {
+                con.rollback();
+                throw e;
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to create jobs", e);
+        }
+        return results;
+    }
+
+    private static void fill(List<Job.SubmissionResult> results, List<Integer> slots, List<Job.SubmissionResult> chunkResults) {
+        for (int i = 0; i < slots.size(); i++) {
+            results.set(slots.get(i), chunkResults.get(i));
+        }
+    }
+
+    private List<Job.SubmissionResult> insertChunk(Connection con, List<Job.Submission> chunk, boolean unique) throws SQLException, JsonProcessingException {
+        String[] ids = new String[chunk.size()];
+        String[] sources = new String[chunk.size()];
+        String[] documents = new String[chunk.size()];
+        Integer[] priorities = new Integer[chunk.size()];
+        String[] hashes = new String[chunk.size()];
+        String[] fingerprints = new String[chunk.size()];
+        // jobs of a source usually share their pseudo config, so equal ones are serialized and hashed once per chunk
+        Map<Job.PseudoConfig, PseudoConfigCache.Entry> chunkPseudoConfigs = new HashMap<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            Job.Document document = chunk.get(i).getDocument();
+            ids[i] = chunk.get(i).getId();
+            sources[i] = chunk.get(i).getSource();
+            documents[i] = toJson(document);
+            priorities[i] = chunk.get(i).getPriority();
+            fingerprints[i] = unique ? document.fingerprint(sources[i]) : null;
+            if (document.getPseudoConfig() != null) {
+                PseudoConfigCache.Entry pseudoConfig = chunkPseudoConfigs.get(document.getPseudoConfig());
+                if (pseudoConfig == null) {
+                    pseudoConfig = PseudoConfigCache.Entry.of(OBJECT_MAPPER, document.getPseudoConfig());
+                    chunkPseudoConfigs.put(document.getPseudoConfig(), pseudoConfig);
+                }
+                hashes[i] = pseudoConfig.getHash();
+            }
+        }
+        PreparedStatement ps = con.prepareStatement(INSERT_PSEUDO_CONFIGS + """
+                INSERT INTO job (id, status, source, document, priority, claim_rank, pseudo_config_hash, fingerprint)
+                SELECT t.id, 'AVAILABLE', t.source, t.document::jsonb, t.priority, now() - make_interval(secs => t.priority * ?), t.hash, t.fingerprint
+                FROM unnest(?::varchar[], ?::varchar[], ?::text[], ?::int[], ?::varchar[], ?::varchar[]) AS t(id, source, document, priority, hash, fingerprint)
+                WHERE NOT EXISTS (SELECT 1 FROM job_archive a WHERE a.id = t.id)
+                ON CONFLICT DO NOTHING
+                RETURNING id
+                """);
+        setPseudoConfigs(con, ps, 1, chunkPseudoConfigs.values());
+        ps.setDouble(3, priorityAgingStep.toMillis() / 1000d);
+        ps.setArray(4, con.createArrayOf("varchar", ids));
+        ps.setArray(5, con.createArrayOf("varchar", sources));
+        ps.setArray(6, con.createArrayOf("text", documents));
+        ps.setArray(7, con.createArrayOf("int4", priorities));
+        ps.setArray(8, con.createArrayOf("varchar", hashes));
+        ps.setArray(9, con.createArrayOf("varchar", fingerprints));
+        ResultSet rs = ps.executeQuery();
+        Set<String> created = new HashSet<>();
+        while (rs.next()) {
+            created.add(rs.getString("id"));
+        }
+        Map<String, String> existing = unique && created.size() < chunk.size() ? unfinishedJobIds(con, fingerprints) : Map.of();
+        List<Job.SubmissionResult> results = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            Job.Submission submission = chunk.get(i);
+            // remove, so that a repeated id within the request is reported as a conflict
+            if (created.remove(submission.getId())) {
+                results.add(Job.SubmissionResult.of(submission.getId(), submission.getSource(), Job.SubmissionResult.Outcome.CREATED));
+            } else if (fingerprints[i] != null && existing.containsKey(fingerprints[i])) {
+                results.add(Job.SubmissionResult.of(existing.get(fingerprints[i]), submission.getSource(), Job.SubmissionResult.Outcome.DUPLICATE));
+            } else {
+                results.add(Job.SubmissionResult.of(submission.getId(), submission.getSource(), Job.SubmissionResult.Outcome.CONFLICT));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * The ids of the jobs that aren't done by their fingerprint, for those of the fingerprints that have one.
+     */
+    private static Map<String, String> unfinishedJobIds(Connection con, String[] fingerprints) throws SQLException {
+        PreparedStatement ps = con.prepareStatement("SELECT id, fingerprint FROM job WHERE fingerprint = ANY (?) AND status <> 'DONE'");
+        ps.setArray(1, con.createArrayOf("varchar", fingerprints));
+        ResultSet rs = ps.executeQuery();
+        Map<String, String> ids = new HashMap<>();
+        while (rs.next()) {
+            ids.put(rs.getString("fingerprint"), rs.getString("id"));
+        }
+        return ids;
+    }
+
+    /**
+     * The parent and its shards are inserted in one transaction, the shards with a single statement.
+     */
+    @Override
+    public List<String> createShardedJob(String id, String source, int priority, Job.Document document, List<String> boundaries) {
+        List<Job.Document> shards = document.shards(boundaries);
+        try (Connection con = dataSource.getConnection()) {
+            con.setAutoCommit(false);
+            try {
+                PseudoConfigCache.Entry pseudoConfig = PseudoConfigCache.Entry.of(OBJECT_MAPPER, document.getPseudoConfig());
+                String hash = pseudoConfig == null ? null : pseudoConfig.getHash();
+                PreparedStatement ps = con.prepareStatement(INSERT_PSEUDO_CONFIGS + """
+                        INSERT INTO job (id, status, source, document, priority, claim_rank, shards_pending, pseudo_config_hash)
+                        SELECT ?, 'SHARDED', ?, ?::jsonb, ?, now() - make_interval(secs => ?), ?, ?
+                        WHERE NOT EXISTS (SELECT 1 FROM job_archive WHERE id = ?)
+                        ON CONFLICT (id) DO NOTHING
+                        """);
+                setPseudoConfigs(con, ps, 1, pseudoConfig == null ? List.of() : List.of(pseudoConfig));
+                ps.setString(3, id);
+                ps.setString(4, source);
+                ps.setString(5, toJson(document));
+                ps.setInt(6, priority);
+                ps.setDouble(7, priority * priorityAgingStep.toMillis() / 1000d);
+                ps.setInt(8, shards.size());
+                ps.setString(9, hash);
+                ps.setString(10, id);
+                if (ps.executeUpdate() < 1) {
+                    con.rollback();
+                    return List.of();
+                }
+                String[] ids = new String[shards.size()];
+                String[] documents = new String[shards.size()];
+                for (int i = 0; i < shards.size(); i++) {
+                    ids[i] = new ULID().nextULID();
+                    documents[i] = toJson(shards.get(i));
+                }
+                ps = con.prepareStatement("""
+                        INSERT INTO job (id, status, source, document, priority, claim_rank, parent_id, pseudo_config_hash)
+                        SELECT t.id, 'AVAILABLE', ?, t.document::jsonb, ?, now() - make_interval(secs => ?), ?, ?
+                        FROM unnest(?::varchar[], ?::text[]) AS t(id, document)
+                        """);
+                ps.setString(1, source);
+                ps.setInt(2, priority);
+                ps.setDouble(3, priority * priorityAgingStep.toMillis() / 1000d);
+                ps.setString(4, id);
+                ps.setString(5, hash);
+                ps.setArray(6, con.createArrayOf("varchar", ids));
+                ps.setArray(7, con.createArrayOf("text", documents));
+                ps.executeUpdate();
+                con.commit();
+                return List.of(ids);
+            } catch (Exception e) {
+                con.rollback();
+                throw e;
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to create sharded job, id: %s, source: %s".formatted(id, source), e);
+        }
+    }
+
+    /**
+     * Jobs that are already done are found, but not changed. Marking a shard as done counts down the shards pending
+     * on its parent, and the parent is done when the count reaches 0. Marking a sharded job as done also marks its
+     * shards as done.
+     */
+    @Override
+    public Set<String> jobsDone(Collection<Job.Key> jobs) {
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement ps = con.prepareStatement("""
+                    WITH requested AS (
+                        SELECT job.id FROM job JOIN unnest(?::varchar[], ?::varchar[]) AS t(id, source) ON job.id = t.id AND job.source = t.source
+                    ), finished AS (
+                        UPDATE job SET status = 'DONE', leased_until = NULL, done_at = now()
+                        WHERE job.status <> 'DONE' AND (job.id IN (SELECT id FROM requested) OR job.parent_id IN (SELECT id FROM requested))
+                        RETURNING job.id, job.source, job.parent_id, job.claimed_at, job.done_at
+                    ), parents AS (
+                        UPDATE job
+                        SET shards_pending = job.shards_pending - f.count,
+                            status = CASE WHEN job.shards_pending = f.count THEN 'DONE' ELSE job.status END,
+                            done_at = CASE WHEN job.shards_pending = f.count THEN now() ELSE job.done_at END
+                        FROM (SELECT parent_id, count(*) AS count FROM finished WHERE parent_id IS NOT NULL GROUP BY parent_id) AS f
+                        WHERE job.id = f.parent_id AND job.status = 'SHARDED' AND job.id NOT IN (SELECT id FROM finished)
+                    )
+                    SELECT r.id AS requested_id, f.source, f.claimed_at, f.done_at
+                    FROM requested r FULL JOIN finished f ON f.id = r.id
+                    """);
+            setKeys(con, ps, 1, jobs);
+            ResultSet rs = ps.executeQuery();
+            Set<String> found = new HashSet<>();
+            while (rs.next()) {
+                if (rs.getString("requested_id") != null) {
+                    found.add(rs.getString("requested_id"));
+                }
+                if (rs.getString("source") != null) {
+                    recordTimeInState("boss.job.active.time", rs.getString("source"), rs.getTimestamp("claimed_at"), rs.getTimestamp("done_at"));
+                }
+            }
+            return found;
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to mark %d jobs as done".formatted(jobs.size()), e);
+        }
+    }
+
+    /**
+     * Sets the ids and sources of the jobs as two arrays, to be unnested into rows.
+     */
+    private static void setKeys(Connection con, PreparedStatement ps, int index, Collection<Job.Key> jobs) throws SQLException {
+        String[] ids = new String[jobs.size()];
+        String[] sources = new String[jobs.size()];
+        int i = 0;
+        for (Job.Key job : jobs) {
+            ids[i] = job.getId();
+            sources[i] = job.getSource();
+            i++;
+        }
+        ps.setArray(index, con.createArrayOf("varchar", ids));
+        ps.setArray(index + 1, con.createArrayOf("varchar", sources));
+    }
+
+    /**
+     * Sets the hashes and json of the pseudo configs as two arrays, for {@link #INSERT_PSEUDO_CONFIGS}. Pseudo configs
+     * in the cache have been read from the table, and are left out since they are never deleted.
+     */
+    private void setPseudoConfigs(Connection con, PreparedStatement ps, int index, Collection<PseudoConfigCache.Entry> entries) throws SQLException {
+        List<String> hashes = new ArrayList<>(entries.size());
+        List<String> configs = new ArrayList<>(entries.size());
+        for (PseudoConfigCache.Entry entry : entries) {
+            if (pseudoConfigs.get(entry.getHash()) == null) {
+                hashes.add(entry.getHash());
+                configs.add(entry.getJson());
+            }
+        }
+        ps.setArray(index, con.createArrayOf("varchar", hashes.toArray()));
+        ps.setArray(index + 1, con.createArrayOf("text", configs.toArray()));
+    }
+
+    /**
+     * The document as json without its pseudo config, which is stored in the pseudo_config table and referred to by
+     * its hash.
+     */
+    private static String toJson(Job.Document document) throws JsonProcessingException {
+        ObjectNode node = OBJECT_MAPPER.valueToTree(document);
+        node.remove("pseudoConfig");
+        return OBJECT_MAPPER.writeValueAsString(node);
+    }
+
+    /**
+     * The pseudo config with the hash, from the cache or else from the pseudo_config table.
+     */
+    private PseudoConfigCache.Entry pseudoConfig(Connection con, String hash) throws SQLException, JsonProcessingException {
+        PseudoConfigCache.Entry entry = pseudoConfigs.get(hash);
+        if (entry != null) {
+            return entry;
+        }
+        PreparedStatement ps = con.prepareStatement("SELECT config FROM pseudo_config WHERE hash = ?");
+        ps.setString(1, hash);
+        ResultSet rs = ps.executeQuery();
+        if (!rs.next()) {
+            throw new IllegalStateException("No pseudo config with hash: %s".formatted(hash));
+        }
+        entry = PseudoConfigCache.Entry.parse(OBJECT_MAPPER, hash, rs.getString("config"));
+        pseudoConfigs.put(entry);
+        return entry;
+    }
+
+    /**
+     * Keyset pagination on the primary key, read through a server-side cursor boss.job.list.fetch-size rows at a time,
+     * which in Postgres requires a transaction. The documents are not mapped.
+     */
+    @Override
+    public JobCursor listJobs(Job.Status status, String source, String after, int limit) {
+        Connection con = null;
+        try {
+            con = dataSource.getConnection();
+            con.setAutoCommit(false);
+            PreparedStatement ps = con.prepareStatement("""
+                    SELECT id, status, source, document, pseudo_config_hash FROM job
+                    WHERE id > ? %s %s
+                    ORDER BY id
+                    LIMIT ?
+                    """.formatted(status == null ? "" : "AND status = ?", source == null ? "" : "AND source = ?"));
+            ps.setFetchSize(listFetchSize);
+            int i = 1;
+            ps.setString(i++, after == null ? "" : after);
+            if (status != null) {
+                ps.setString(i++, status.toString());
+            }
+            if (source != null) {
+                ps.setString(i++, source);
+            }
+            ps.setInt(i, limit);
+            return new ResultSetJobCursor(con, ps.executeQuery());
+        } catch (SQLException e) {
+            close(con);
+            throw new RuntimeException("Failed to list jobs, status: %s, source: %s, after: %s".formatted(status, source, after), e);
+        }
+    }
+
+    private static void close(Connection con) {
+        if (con == null) {
+            return;
+        }
+        try {
+            con.rollback();
+            con.close();
+        } catch (SQLException e) {
+            log.warn("Failed to close connection", e);
+        }
+    }
+
+    private final class ResultSetJobCursor implements JobCursor {
+        private final Connection con;
+        private final ResultSet rs;
+        private Boolean hasNext;
+
+        private ResultSetJobCursor(Connection con, ResultSet rs) {
+            this.con = con;
+            this.rs = rs;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (hasNext == null) {
+                try {
+                    hasNext = rs.next();
+                } catch (SQLException e) {
+                    throw new RuntimeException("Failed to read next job", e);
+                }
+            }
+            return hasNext;
+        }
+
+        @Override
+        public RawJob next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            hasNext = null;
+            try {
+                return toRawJob(con, rs);
+            } catch (SQLException | JsonProcessingException e) {
+                throw new RuntimeException("Failed to read job", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            PostgresJobRepository.close(con);
+        }
+    }
+
+    @Override
+    public int saveCheckpoints(Map<Job.Key, String> positions) {
+        String[] ids = new String[positions.size()];
+        String[] sources = new String[positions.size()];
+        String[] checkpoints = new String[positions.size()];
+        int i = 0;
+        for (Map.Entry<Job.Key, String> entry : positions.entrySet()) {
+            ids[i] = entry.getKey().getId();
+            sources[i] = entry.getKey().getSource();
+            checkpoints[i] = entry.getValue();
+            i++;
+        }
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement ps = con.prepareStatement("""
+                    UPDATE job SET checkpoint = t.checkpoint, checkpointed_at = now()
+                    FROM unnest(?::varchar[], ?::varchar[], ?::text[]) AS t(id, source, checkpoint)
+                    WHERE job.id = t.id AND job.source = t.source AND job.status = 'ACTIVE'
+                    """);
+            ps.setArray(1, con.createArrayOf("varchar", ids));
+            ps.setArray(2, con.createArrayOf("varchar", sources));
+            ps.setArray(3, con.createArrayOf("text", checkpoints));
+            return ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to save checkpoints of %d jobs".formatted(positions.size()), e);
+        }
+    }
+
+    @Override
+    public int archiveDoneJobs(Duration retention, int batchSize) {
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement ps = con.prepareStatement("""
+                    WITH archived AS (
+                        DELETE FROM job
+                        WHERE id IN
+                            (SELECT id FROM job WHERE status = 'DONE' AND done_at <= now() - make_interval(secs => ?)
+                             AND NOT EXISTS (SELECT 1 FROM job_archive a WHERE a.id = job.id)
+                             LIMIT ? FOR UPDATE SKIP LOCKED)
+                        RETURNING %1$s
+                    )
+                    INSERT INTO job_archive (%1$s)
+                    SELECT %1$s FROM archived
+                    """.formatted(JOB_COLUMNS));
+            ps.setDouble(1, retention.toMillis() / 1000d);
+            ps.setInt(2, batchSize);
+            return ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to archive done jobs", e);
+        }
+    }
+
+    @Override
+    public Map<String, Map<Job.Status, Long>> countJobs() {
+        try (Connection con = dataSource.getConnection()) {
+            Statement stmt = con.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT source, status, count(*) AS count FROM job GROUP BY source, status");
+            Map<String, Map<Job.Status, Long>> counts = new HashMap<>();
+            while (rs.next()) {
+                counts.computeIfAbsent(rs.getString("source"), source -> new EnumMap<>(Job.Status.class))
+                        .put(Job.Status.get(rs.getString("status")), rs.getLong("count"));
+            }
+            return counts;
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to count jobs", e);
+        }
+    }
+
+    /**
+     * Records how long a job was in a state, i.e. the time between two of its timestamps. Jobs that were never
+     * claimed (like available jobs that are marked as done) have no time in the active state.
+     */
+    private void recordTimeInState(String name, String source, Timestamp from, Timestamp to) {
+        if (from == null || to == null) {
+            return;
+        }
+        Timer.builder(name)
+                .tag("source", source)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(Duration.between(from.toInstant(), to.toInstant()));
+    }
+
+    @Override
+    public List<Job> readAllJobs(boolean includeArchived) {
+        try (Connection con = dataSource.getConnection()) {
+            Statement stmt = con.createStatement();
+            ResultSet rs = stmt.executeQuery(includeArchived ? """
+                    SELECT %1$s FROM job
+                    UNION ALL
+                    SELECT %1$s FROM job_archive
+                    ORDER BY id
+                    """.formatted(JOB_COLUMNS) : "SELECT * FROM job ORDER BY id");
+            List<Job> jobs = new ArrayList<>();
+            while (rs.next()) {
+                jobs.add(toJob(con, rs));
+            }
+            return jobs;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to read jobs", e);
+        }
+    }
+
+    /**
+     * The job of the row, with its pseudo config.
+     */
+    private Job toJob(Connection con, ResultSet rs) throws SQLException, JsonProcessingException {
+        Job job = toJob(rs);
+        String hash = rs.getString("pseudo_config_hash");
+        if (hash != null) {
+            job.getDocument().setPseudoConfig(pseudoConfig(con, hash).getConfig());
+        }
+        return job;
+    }
+
+    /**
+     * The job of the row, with its pseudo config added to its document as json.
+     */
+    private RawJob toRawJob(Connection con, ResultSet rs) throws SQLException, JsonProcessingException {
+        RawJob rawJob = toRawJob(rs);
+        String hash = rs.getString("pseudo_config_hash");
+        return hash == null ? rawJob : rawJob.withPseudoConfig(pseudoConfig(con, hash).getJson());
+    }
+
+    static Job toJob(ResultSet rs) throws SQLException, JsonProcessingException {
+        return Job.create(
+                rs.getString("id"),
+                Job.Status.get(rs.getString("status")),
+                rs.getString("source"),
+                OBJECT_MAPPER.readValue(rs.getString("document"), Job.Document.class)
+        );
+    }
+
+    static RawJob toRawJob(ResultSet rs) throws SQLException {
+        return new RawJob(
+                rs.getString("id"),
+                Job.Status.get(rs.getString("status")),
+                rs.getString("source"),
+                rs.getString("document")
+        );
+    }
+
+    @Override
+    public int deleteAllJobs() {
+        try (Connection con = dataSource.getConnection()) {
+            Statement stmt = con.createStatement();
+            return stmt.executeUpdate("TRUNCATE TABLE job, job_archive");
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to delete jobs", e);
+        }
+    }
+}
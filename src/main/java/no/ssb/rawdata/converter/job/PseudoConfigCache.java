@@ -0,0 +1,56 @@
+package no.ssb.rawdata.converter.job;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Value;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Pseudo configs by the hash of their json, at most maxSize of them, evicting the least recently used. Jobs resolved
+ * through the cache share one parsed instance per pseudo config, which must not be modified.
+ */
+class PseudoConfigCache {
+
+    private final Map<String, Entry> entries;
+
+    PseudoConfigCache(int maxSize) {
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    synchronized Entry get(String hash) {
+        return entries.get(hash);
+    }
+
+    synchronized void put(Entry entry) {
+        entries.put(entry.getHash(), entry);
+    }
+
+    @Value
+    static class Entry {
+        String hash;
+        String json;
+        Job.PseudoConfig config;
+
+        /**
+         * The pseudo config with its json and hash, or null without one.
+         */
+        static Entry of(ObjectMapper objectMapper, Job.PseudoConfig config) throws JsonProcessingException {
+            if (config == null) {
+                return null;
+            }
+            String json = objectMapper.writeValueAsString(config);
+            return new Entry(Job.sha256(json), json, config);
+        }
+
+        static Entry parse(ObjectMapper objectMapper, String hash, String json) throws JsonProcessingException {
+            return new Entry(hash, json, objectMapper.readValue(json, Job.PseudoConfig.class));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package no.ssb.rawdata.converter.job;
+
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.Value;
+
+/**
+ * A job with its document kept as the JSON stored in the database. The document is written to responses as is,
+ * without being mapped to and from {@link Job.Document}.
+ */
+@Value
+public class RawJob {
+    String id;
+    Job.Status status;
+    String source;
+    @JsonRawValue
+    String document;
+
+    Job toJob(ObjectMapper objectMapper) throws JsonProcessingException {
+        return Job.create(id, status, source, objectMapper.readValue(document, Job.Document.class));
+    }
+
+    /**
+     * The job with the position as the initial position of its document.
+     */
+    RawJob withInitialPosition(ObjectMapper objectMapper, String position) throws JsonProcessingException {
+        ObjectNode node = (ObjectNode) objectMapper.readTree(document);
+        node.put("initialPosition", position);
+        return new RawJob(id, status, source, objectMapper.writeValueAsString(node));
+    }
+
+    /**
+     * The job with the json as the pseudo config of its document, which must not have one. The json is added to the
+     * end of the document as is, without parsing either of them.
+     */
+    RawJob withPseudoConfig(String pseudoConfig) {
+        String fields = document.substring(0, document.lastIndexOf('}')).stripTrailing();
+        String separator = fields.endsWith("{") ? "" : ", ";
+        return new RawJob(id, status, source, fields + separator + "\"pseudoConfig\": " + pseudoConfig + "}");
+    }
+}
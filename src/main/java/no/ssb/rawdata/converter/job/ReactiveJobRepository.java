@@ -0,0 +1,160 @@
+package no.ssb.rawdata.converter.job;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * {@link JobRepository} with every call made on the bounded jdbc executor, for use from the netty event loop. Every
+ * call is timed with the boss.job.repository timer, tagged with the operation, and its wait for the executor is
+ * reported to {@link JobAdmission}.
+ */
+@Singleton
+public class ReactiveJobRepository {
+
+    private final JobRepository repository;
+    private final JobScheduler jobScheduler;
+    private final Scheduler scheduler;
+    private final MeterRegistry meterRegistry;
+    private final JobAdmission admission;
+
+    public ReactiveJobRepository(JobRepository repository, JobScheduler jobScheduler, @Named(JdbcExecutorFactory.JDBC) ExecutorService executor, MeterRegistry meterRegistry, JobAdmission admission) {
+        this.repository = repository;
+        this.jobScheduler = jobScheduler;
+        this.scheduler = Schedulers.from(executor);
+        this.meterRegistry = meterRegistry;
+        this.admission = admission;
+    }
+
+    public Maybe<Job> readJob(String id, Job.Status status, String source) {
+        Callable<Job> call = timed("readJob", () -> repository.readJob(id, status, source));
+        return Maybe.defer(() -> {
+            JobAdmission.QueuedCall queued = admission.queue();
+            return Maybe.fromCallable(started(queued, call)).subscribeOn(scheduler).doOnDispose(queued::cancelled);
+        });
+    }
+
+    /**
+     * Claims from the source, or from the source picked by {@link JobScheduler} if source is null. Jobs that match the
+     * affinity are claimed first, and any jobs after them if fewer than max match.
+     */
+    public Single<List<RawJob>> findAvailableRawJobs(String source, Job.Affinity affinity, String claimant, int max) {
+        if (source == null) {
+            return call("findAvailableJobs", () -> jobScheduler.findAvailableJobs(affinity, claimant, max));
+        }
+        return call("findAvailableJobs", () -> {
+            if (affinity.isEmpty()) {
+                return repository.findAvailableRawJobs(source, claimant, max);
+            }
+            List<RawJob> jobs = new ArrayList<>(repository.findAvailableRawJobs(source, List.of(), affinity, claimant, max));
+            if (jobs.size() < max) {
+                jobs.addAll(repository.findAvailableRawJobs(source, claimant, max - jobs.size()));
+            }
+            return jobs;
+        });
+    }
+
+    public Single<Integer> renewLease(String id, String source) {
+        return call("renewLease", () -> repository.renewLease(id, source));
+    }
+
+    public Single<Set<String>> renewLeases(Collection<Job.Key> jobs) {
+        return call("renewLeases", () -> repository.renewLeases(jobs));
+    }
+
+    public Single<Integer> createJob(String id, String source, int priority, Job.Document document) {
+        return call("createJob", () -> repository.createJob(id, source, priority, document));
+    }
+
+    public Single<Job.SubmissionResult> createUniqueJob(String id, String source, int priority, Job.Document document) {
+        return call("createUniqueJob", () -> repository.createUniqueJob(id, source, priority, document));
+    }
+
+    public Single<List<Job.SubmissionResult>> createJobs(Iterable<Job.Submission> submissions, boolean unique) {
+        return call("createJobs", () -> repository.createJobs(submissions, unique));
+    }
+
+    public Single<List<String>> createShardedJob(String id, String source, int priority, Job.Document document, List<String> boundaries) {
+        return call("createShardedJob", () -> repository.createShardedJob(id, source, priority, document, boundaries));
+    }
+
+    public Single<Integer> jobDone(String id, String source) {
+        return call("jobDone", () -> repository.jobDone(id, source));
+    }
+
+    /**
+     * Jobs are read from the cursor as they are requested downstream, so only the jobs on their way to the client are
+     * in memory. The cursor is closed when the jobs are all read, or the client goes away. A cursor may hold a
+     * connection until then, so listings must be admitted by {@link JobAdmission#tryAdmitListing()}.
+     */
+    public Flowable<RawJob> listJobs(Job.Status status, String source, String after, int limit) {
+        Callable<JobCursor> open = timed("listJobs", () -> repository.listJobs(status, source, after, limit));
+        return Flowable.defer(() -> {
+            if (!admission.tryAdmitListing()) {
+                return Flowable.error(new JobAdmission.RejectedException("Listing rejected by admission control"));
+            }
+            JobAdmission.QueuedCall queued = admission.queue();
+            return Flowable.<RawJob, JobCursor>generate(started(queued, open), (cursor, emitter) -> {
+                if (cursor.hasNext()) {
+                    emitter.onNext(cursor.next());
+                } else {
+                    emitter.onComplete();
+                }
+            }, JobCursor::close)
+                    .subscribeOn(scheduler)
+                    .doOnCancel(queued::cancelled)
+                    .doFinally(admission::releaseListing);
+        });
+    }
+
+    public Single<Set<String>> jobsDone(Collection<Job.Key> jobs) {
+        return call("jobsDone", () -> repository.jobsDone(jobs));
+    }
+
+    /**
+     * The call, made on the jdbc executor when subscribed to.
+     */
+    private <T> Single<T> call(String operation, Callable<T> callable) {
+        Callable<T> call = timed(operation, callable);
+        return Single.defer(() -> {
+            JobAdmission.QueuedCall queued = admission.queue();
+            return Single.fromCallable(started(queued, call)).subscribeOn(scheduler).doOnDispose(queued::cancelled);
+        });
+    }
+
+    private static <T> Callable<T> started(JobAdmission.QueuedCall queued, Callable<T> callable) {
+        return () -> {
+            queued.started();
+            return callable.call();
+        };
+    }
+
+    private <T> Callable<T> timed(String operation, Callable<T> callable) {
+        Timer timer = timer(meterRegistry, operation);
+        return () -> timer.recordCallable(callable);
+    }
+
+    /**
+     * The boss.job.repository timer of the operation, also for the background jobs that call {@link JobRepository}
+     * directly.
+     */
+    static Timer timer(MeterRegistry meterRegistry, String operation) {
+        return Timer.builder("boss.job.repository")
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,196 @@
+package no.ssb.rawdata.converter.job;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of records, used by {@link EmbeddedJobRepository}. Each record is framed by its length and a
+ * checksum, so a record torn by a crash is detected when the file is read back.
+ * <p>
+ * Appending only writes to a buffer. A record is durable once {@link #sync(long)} has returned for its position. Syncs
+ * are batched: the thread that gets to sync first forces everything appended so far to disk, and the threads that
+ * were waiting meanwhile find their records already synced.
+ */
+@Slf4j
+class WriteAheadLog implements AutoCloseable {
+
+    private final Path file;
+    private final FileChannel channel;
+    private final DataOutputStream out;
+    private final Object syncLock = new Object();
+
+    private long written;
+    private volatile long synced;
+    private boolean closed;
+
+    WriteAheadLog(Path file) {
+        this.file = file;
+        try {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open write-ahead log: %s".formatted(file), e);
+        }
+    }
+
+    /**
+     * Appends a record and returns its position, to be passed to {@link #sync(long)}.
+     */
+    synchronized long append(byte[] record) {
+        if (closed) {
+            throw new IllegalStateException("Write-ahead log is closed: %s".formatted(file));
+        }
+        try {
+            writeRecord(out, record);
+            return ++written;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to append to write-ahead log: %s".formatted(file), e);
+        }
+    }
+
+    /**
+     * Returns when the record at the position, and all records before it, are on disk.
+     */
+    void sync(long position) {
+        if (position <= synced) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (position <= synced) {
+                return;
+            }
+            long upTo;
+            synchronized (this) {
+                flush();
+                upTo = written;
+            }
+            force();
+            synced = upTo;
+        }
+    }
+
+    synchronized long written() {
+        return written;
+    }
+
+    /**
+     * Syncs and closes the log. Later syncs of positions in this log return right away.
+     */
+    @Override
+    public void close() {
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                flush();
+                force();
+                synced = written;
+                closed = true;
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    log.warn("Failed to close write-ahead log: {}", file, e);
+                }
+            }
+        }
+    }
+
+    private void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write to write-ahead log: %s".formatted(file), e);
+        }
+    }
+
+    private void force() {
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to sync write-ahead log: %s".formatted(file), e);
+        }
+    }
+
+    /**
+     * Writes the records to a new file, which replaces the given file only once all records are on disk.
+     */
+    static void write(Path file, Iterable<byte[]> records) {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+            for (byte[] record : records) {
+                writeRecord(out, record);
+            }
+            out.flush();
+            channel.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write %s".formatted(file), e);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to move %s to %s".formatted(tmp, file), e);
+        }
+    }
+
+    /**
+     * Passes every record in the file to the consumer, in order, and stops at the first torn or corrupt record.
+     * Returns the number of records read.
+     */
+    static long read(Path file, Consumer<byte[]> consumer) {
+        long count = 0;
+        try (InputStream fileIn = Files.newInputStream(file)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(fileIn, 64 * 1024));
+            while (true) {
+                byte[] record;
+                try {
+                    int length = in.readInt();
+                    long checksum = in.readInt() & 0xffffffffL;
+                    if (length < 0) {
+                        log.warn("Corrupt record #{} in {}, ignoring the rest of the file", count + 1, file);
+                        return count;
+                    }
+                    record = in.readNBytes(length);
+                    if (record.length < length || checksum(record) != checksum) {
+                        log.warn("Torn or corrupt record #{} in {}, ignoring the rest of the file", count + 1, file);
+                        return count;
+                    }
+                } catch (EOFException e) {
+                    return count;
+                }
+                consumer.accept(record);
+                count++;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read %s".formatted(file), e);
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, byte[] record) throws IOException {
+        out.writeInt(record.length);
+        out.writeInt((int) checksum(record));
+        out.write(record);
+    }
+
+    private static long checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return crc.getValue();
+    }
+}
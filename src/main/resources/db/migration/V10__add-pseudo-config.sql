@@ -0,0 +1,17 @@
+-- noinspection SqlNoDataSourceInspectionForFile
+
+-- Pseudo configs are stored once per SHA-256 hash of their json, and jobs refer to them by hash instead of embedding
+-- them in their document. Rows are never deleted, since any job, archived or not, may refer to them.
+CREATE TABLE pseudo_config
+(
+    hash       varchar(64) NOT NULL,
+    config     jsonb       NOT NULL,
+    created_at timestamptz NOT NULL DEFAULT now(),
+    PRIMARY KEY (hash)
+);
+
+ALTER TABLE job
+    ADD COLUMN pseudo_config_hash varchar(64);
+
+ALTER TABLE job_archive
+    ADD COLUMN pseudo_config_hash varchar(64);
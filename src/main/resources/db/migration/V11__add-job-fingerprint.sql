@@ -0,0 +1,11 @@
+-- noinspection SqlNoDataSourceInspectionForFile
+
+-- The fingerprint of jobs submitted as unique, identifying the data they convert. There can only be one job with a
+-- fingerprint that isn't done, and submitting another one gives the id of that job instead.
+ALTER TABLE job
+    ADD COLUMN fingerprint varchar(64);
+
+ALTER TABLE job_archive
+    ADD COLUMN fingerprint varchar(64);
+
+CREATE UNIQUE INDEX job_fingerprint_idx ON job (fingerprint) WHERE status <> 'DONE';
@@ -0,0 +1,6 @@
+-- noinspection SqlNoDataSourceInspectionForFile
+
+-- Claims with an affinity prefer available jobs with the storage root or topic of the document that the converter
+-- asks for. Ordered like job_available_rank_idx, so the preferred jobs are found in claim order without sorting.
+CREATE INDEX job_available_storage_root_idx ON job ((document ->> 'storageRoot'), claim_rank, id) WHERE status = 'AVAILABLE';
+CREATE INDEX job_available_topic_idx ON job ((document ->> 'topic'), claim_rank, id) WHERE status = 'AVAILABLE';
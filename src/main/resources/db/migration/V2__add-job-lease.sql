@@ -0,0 +1,12 @@
+-- noinspection SqlNoDataSourceInspectionForFile
+
+ALTER TABLE job
+    ADD COLUMN claimed_by   varchar(255),
+    ADD COLUMN claimed_at   timestamptz,
+    ADD COLUMN leased_until timestamptz;
+
+CREATE INDEX job_active_lease_idx ON job (leased_until) WHERE status = 'ACTIVE';
+
+-- Jobs claimed before leases have no lease, and would never be released by the reaper. Their converters don't renew
+-- leases either, so they are leased until now and released by the reaper's first run.
+UPDATE job SET leased_until = now() WHERE status = 'ACTIVE' AND leased_until IS NULL;
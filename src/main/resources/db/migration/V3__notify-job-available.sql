@@ -0,0 +1,16 @@
+-- noinspection SqlNoDataSourceInspectionForFile
+
+CREATE FUNCTION notify_job_available() RETURNS trigger AS
+$$
+BEGIN
+    PERFORM pg_notify('job_available', NEW.source);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER job_available_notify
+    AFTER INSERT OR UPDATE OF status
+    ON job
+    FOR EACH ROW
+    WHEN (NEW.status = 'AVAILABLE')
+EXECUTE FUNCTION notify_job_available();
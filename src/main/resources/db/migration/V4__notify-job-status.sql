@@ -0,0 +1,16 @@
+-- noinspection SqlNoDataSourceInspectionForFile
+
+CREATE FUNCTION notify_job_inactive() RETURNS trigger AS
+$$
+BEGIN
+    PERFORM pg_notify('job_inactive', NEW.id);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER job_inactive_notify
+    AFTER UPDATE OF status
+    ON job
+    FOR EACH ROW
+    WHEN (OLD.status = 'ACTIVE' AND NEW.status <> 'ACTIVE')
+EXECUTE FUNCTION notify_job_inactive();
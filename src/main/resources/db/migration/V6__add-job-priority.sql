@@ -0,0 +1,19 @@
+-- noinspection SqlNoDataSourceInspectionForFile
+
+-- claim_rank is created_at moved back by priority * boss.job.priority-aging-step, and available jobs are claimed in
+-- claim_rank order. A job thus only waits for jobs of higher priority that were submitted less than the difference in
+-- priority times the aging step after it, so low priority jobs are never starved.
+ALTER TABLE job
+    ADD COLUMN priority   int NOT NULL DEFAULT 0,
+    ADD COLUMN claim_rank timestamptz;
+
+UPDATE job SET claim_rank = created_at;
+
+ALTER TABLE job
+    ALTER COLUMN claim_rank SET NOT NULL,
+    ALTER COLUMN claim_rank SET DEFAULT now();
+
+-- Both match the claim subquery, so that the next available jobs are found by an index scan in claim order, without
+-- sorting. The claimed rows are still read from the table, since they are locked with FOR UPDATE SKIP LOCKED.
+CREATE INDEX job_available_rank_idx ON job (claim_rank, id) INCLUDE (source) WHERE status = 'AVAILABLE';
+CREATE INDEX job_available_source_rank_idx ON job (source, claim_rank, id) WHERE status = 'AVAILABLE';
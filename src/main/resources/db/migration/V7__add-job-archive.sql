@@ -0,0 +1,11 @@
+-- noinspection SqlNoDataSourceInspectionForFile
+
+-- Done jobs are moved here by JobArchiver after boss.job.archive.retention, so the job table only holds the jobs that
+-- are still in play. Columns added to job later must be added here too, in the same order.
+CREATE TABLE job_archive
+(
+    LIKE job INCLUDING DEFAULTS,
+    PRIMARY KEY (id)
+);
+
+CREATE INDEX job_done_idx ON job (done_at) WHERE status = 'DONE';
@@ -0,0 +1,11 @@
+-- noinspection SqlNoDataSourceInspectionForFile
+
+-- The last position a converter reported as committed, flushed by JobProgressBuffer. A claim of a job with a
+-- checkpoint returns the checkpoint as the initialPosition of the document.
+ALTER TABLE job
+    ADD COLUMN checkpoint      text,
+    ADD COLUMN checkpointed_at timestamptz;
+
+ALTER TABLE job_archive
+    ADD COLUMN checkpoint      text,
+    ADD COLUMN checkpointed_at timestamptz;
@@ -0,0 +1,13 @@
+-- noinspection SqlNoDataSourceInspectionForFile
+
+-- A sharded job is a parent with status SHARDED that is never claimed, and shards that are claimed like any other job.
+-- The parent counts its shards that aren't done yet, and is done when the count reaches 0.
+ALTER TABLE job
+    ADD COLUMN parent_id      varchar(26),
+    ADD COLUMN shards_pending int;
+
+ALTER TABLE job_archive
+    ADD COLUMN parent_id      varchar(26),
+    ADD COLUMN shards_pending int;
+
+CREATE INDEX job_parent_idx ON job (parent_id) WHERE parent_id IS NOT NULL;
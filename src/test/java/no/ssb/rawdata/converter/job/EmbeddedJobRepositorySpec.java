@@ -0,0 +1,184 @@
+package no.ssb.rawdata.converter.job;
+
+import de.huxhorn.sulky.ulid.ULID;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EmbeddedJobRepositorySpec extends JobRepositoryContract {
+
+    @TempDir
+    Path directory;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private EmbeddedJobRepository repository;
+
+    @Override
+    JobRepository repository() {
+        return repository;
+    }
+
+    @Override
+    MeterRegistry meterRegistry() {
+        return meterRegistry;
+    }
+
+    @BeforeEach
+    void openRepository() {
+        repository = open(Duration.ofMinutes(10));
+    }
+
+    @AfterEach
+    void closeRepository() {
+        repository.close();
+    }
+
+    @Test
+    void thatJobsAreRecoveredFromLog() {
+        String available = new ULID().nextULID();
+        String active = new ULID().nextULID();
+        String done = new ULID().nextULID();
+        repository.createJob(active, "freg", 1, document("active"));
+        repository.createJob(available, "freg", document("available"));
+        repository.createJob(done, "sirius", document("done"));
+        repository.findAvailableJob("freg", "converter-1");
+        repository.jobDone(done, "sirius");
+
+        //Stop without a snapshot, as if the boss crashed
+        repository.close();
+        repository = open(Duration.ofMinutes(10));
+
+        assertThat(repository.readJob(available, Job.Status.AVAILABLE, "freg")).isNotNull();
+        assertThat(repository.readJob(active, Job.Status.ACTIVE, "freg")).isNotNull();
+        assertThat(repository.readJob(done, Job.Status.DONE, "sirius")).isNotNull();
+        assertThat(repository.renewLease(active, "freg")).isEqualTo(1);
+        assertThat(repository.findAvailableJob(null, "converter-2").getId()).isEqualTo(available);
+    }
+
+    @Test
+    void thatJobsAreRecoveredFromSnapshotAndLog() {
+        String archived = new ULID().nextULID();
+        String beforeSnapshot = new ULID().nextULID();
+        String afterSnapshot = new ULID().nextULID();
+        repository.createJob(archived, "freg", document("archived"));
+        repository.jobDone(archived, "freg");
+        repository.archiveDoneJobs(Duration.ZERO, 10);
+        repository.createJob(beforeSnapshot, "freg", document("before"));
+        repository.snapshot();
+        repository.createJob(afterSnapshot, "freg", document("after"));
+
+        repository.close();
+        repository = open(Duration.ofMinutes(10));
+
+        assertThat(repository.readAllJobs()).extracting(Job::getId).containsExactlyInAnyOrder(beforeSnapshot, afterSnapshot);
+        assertThat(repository.readJob(archived, Job.Status.DONE, "freg", true)).isNotNull();
+    }
+
+    @Test
+    void thatTornRecordAtEndOfLogIsIgnored() throws IOException {
+        String id = new ULID().nextULID();
+        repository.createJob(id, "freg", document("data"));
+        repository.close();
+
+        //A record that was only partly written when the boss crashed
+        try (Stream<Path> files = Files.list(directory)) {
+            Path log = files.filter(file -> file.getFileName().toString().startsWith("wal-")).findFirst().orElseThrow();
+            Files.write(log, new byte[]{0, 0, 0, 100, 1, 2, 3}, StandardOpenOption.APPEND);
+        }
+        repository = open(Duration.ofMinutes(10));
+
+        assertThat(repository.readAllJobs()).extracting(Job::getId).containsExactly(id);
+        String next = new ULID().nextULID();
+        repository.createJob(next, "freg", document("data"));
+        repository.close();
+        repository = open(Duration.ofMinutes(10));
+        assertThat(repository.readAllJobs()).extracting(Job::getId).containsExactlyInAnyOrder(id, next);
+    }
+
+    @Test
+    void thatExpiredLeaseIsReleased() throws InterruptedException {
+        repository.close();
+        repository = open(Duration.ofMillis(10));
+        String id = new ULID().nextULID();
+        repository.createJob(id, "freg", document("data"));
+        repository.findAvailableJob("freg", "converter-1");
+
+        Thread.sleep(50);
+
+        assertThat(repository.releaseExpiredLeases()).isEqualTo(1);
+        assertThat(repository.readJob(id, Job.Status.AVAILABLE, "freg")).isNotNull();
+        assertThat(repository.renewLease(id, "freg")).isZero();
+    }
+
+    @Test
+    void thatReclaimedJobResumesFromRecoveredCheckpoint() throws InterruptedException {
+        repository.close();
+        repository = open(Duration.ofMillis(10));
+        String id = new ULID().nextULID();
+        repository.createJob(id, "freg", document("data"));
+        repository.findAvailableJob("freg", "converter-1");
+        assertThat(repository.saveCheckpoints(Map.of(Job.Key.of(id, "freg"), "position-1"))).isEqualTo(1);
+
+        //Recovered from the log, then from the snapshot taken on recovery
+        repository.close();
+        repository = open(Duration.ofMillis(10));
+        repository.close();
+        repository = open(Duration.ofMillis(10));
+
+        Thread.sleep(50);
+
+        assertThat(repository.releaseExpiredLeases()).isEqualTo(1);
+        assertThat(repository.findAvailableJob("freg", "converter-2").getDocument().getInitialPosition()).isEqualTo("position-1");
+    }
+
+    @Test
+    void thatShardCountIsRecovered() {
+        String id = new ULID().nextULID();
+        List<String> shards = repository.createShardedJob(id, "freg", Job.DEFAULT_PRIORITY, document("data"), List.of("100", "200"));
+        repository.jobDone(shards.get(0), "freg");
+
+        //Recovered from the log, then from the snapshot taken on recovery
+        repository.close();
+        repository = open(Duration.ofMinutes(10));
+        repository.jobDone(shards.get(1), "freg");
+        repository.close();
+        repository = open(Duration.ofMinutes(10));
+
+        assertThat(repository.readJob(id, Job.Status.SHARDED, "freg")).isNotNull();
+        repository.jobDone(shards.get(2), "freg");
+        assertThat(repository.readJob(id, Job.Status.DONE, "freg")).isNotNull();
+    }
+
+    @Test
+    void thatUnfinishedUniqueJobIsRecovered() {
+        String id = new ULID().nextULID();
+        repository.createUniqueJob(id, "freg", Job.DEFAULT_PRIORITY, document("data"));
+
+        //Recovered from the log, then from the snapshot taken on recovery
+        for (int i = 0; i < 2; i++) {
+            repository.close();
+            repository = open(Duration.ofMinutes(10));
+            assertThat(repository.createUniqueJob(new ULID().nextULID(), "freg", Job.DEFAULT_PRIORITY, document("data")).getId()).isEqualTo(id);
+        }
+    }
+
+    private EmbeddedJobRepository open(Duration leaseDuration) {
+        return new EmbeddedJobRepository(meterRegistry, new JobAvailability(), new ActiveJobIndex(true, Duration.ofSeconds(30)),
+                directory.toString(), leaseDuration, Duration.ofMinutes(1));
+    }
+}
@@ -0,0 +1,145 @@
+package no.ssb.rawdata.converter.job;
+
+import de.huxhorn.sulky.ulid.ULID;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micronaut.context.annotation.Property;
+import io.micronaut.runtime.server.EmbeddedServer;
+import io.micronaut.test.annotation.MicronautTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.inject.Inject;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Shows that claims are shed with 503 instead of piling up in front of a slow database, so that the claims that are
+ * admitted don't time out, and done notifications are answered meanwhile.
+ */
+@MicronautTest(environments = "slow-repository")
+@Property(name = "slow-repository.claim-delay", value = "100ms")
+@Property(name = "boss.jdbc.threads", value = "2")
+@Property(name = "boss.admission.max-concurrent-claims", value = "4")
+@Property(name = "boss.admission.max-queue-wait", value = "200ms")
+@Slf4j
+class JobAdmissionSpec {
+
+    private static final Duration CLIENT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration LOAD_DURATION = Duration.ofSeconds(2);
+    private static final int CLIENTS = 50;
+
+    @Inject
+    private EmbeddedServer server;
+
+    @Inject
+    private JobRepository repository;
+
+    @Inject
+    private MeterRegistry meterRegistry;
+
+    private final HttpClient httpClient = HttpClient.newBuilder().build();
+
+    @BeforeEach
+    void clearJobRepository() {
+        repository.deleteAllJobs();
+    }
+
+    @Test
+    void thatClaimsAreShedWhenTheDatabaseIsOverloaded() throws Exception {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ids.add(new ULID().nextULID());
+            repository.createJob(ids.get(i), "fast", JobRepositoryContract.document("data"));
+        }
+        double rejectedBefore = rejected();
+
+        //Far more converters claiming from the slow source than the two jdbc threads can serve
+        Map<Integer, AtomicInteger> statuses = new ConcurrentHashMap<>();
+        AtomicInteger timeouts = new AtomicInteger();
+        AtomicInteger missingRetryAfter = new AtomicInteger();
+        long end = System.nanoTime() + LOAD_DURATION.toNanos();
+        ExecutorService executor = Executors.newFixedThreadPool(CLIENTS);
+        List<CompletableFuture<Void>> clients = new ArrayList<>();
+        for (int i = 0; i < CLIENTS; i++) {
+            clients.add(CompletableFuture.runAsync(() -> {
+                while (System.nanoTime() < end) {
+                    try {
+                        HttpResponse<String> response = send(request("/job/available/slow").GET().build());
+                        statuses.computeIfAbsent(response.statusCode(), status -> new AtomicInteger()).incrementAndGet();
+                        if (response.statusCode() == 503) {
+                            if (response.headers().firstValue("Retry-After").isEmpty()) {
+                                missingRetryAfter.incrementAndGet();
+                            }
+                            Thread.sleep(50);
+                        }
+                    } catch (HttpTimeoutException e) {
+                        timeouts.incrementAndGet();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }, executor));
+        }
+
+        //Done notifications are always admitted
+        for (String id : ids) {
+            Thread.sleep(LOAD_DURATION.toMillis() / ids.size() / 2);
+            assertThat(send(request("/job/done/fast/" + id).POST(HttpRequest.BodyPublishers.noBody()).build()).statusCode()).isEqualTo(200);
+        }
+        CompletableFuture.allOf(clients.toArray(CompletableFuture[]::new)).join();
+        executor.shutdown();
+
+        int answered = statuses.getOrDefault(404, new AtomicInteger()).get();
+        int shed = statuses.getOrDefault(503, new AtomicInteger()).get();
+        log.info("{} clients claiming for {} s: {} answered, {} shed, {} timed out", CLIENTS, LOAD_DURATION.toSeconds(), answered, shed, timeouts.get());
+
+        assertThat(timeouts.get()).isZero();
+        assertThat(statuses.keySet()).containsOnly(404, 503);
+        assertThat(answered).isPositive();
+        assertThat(shed).isPositive();
+        assertThat(missingRetryAfter.get()).isZero();
+        assertThat(rejected() - rejectedBefore).isEqualTo(shed);
+    }
+
+    @Test
+    void thatListingsAreLimited() {
+        JobAdmission admission = new JobAdmission(new SimpleMeterRegistry(), true, 1, 1, Duration.ofMillis(500), Duration.ofSeconds(1));
+
+        assertThat(admission.tryAdmitListing()).isTrue();
+        assertThat(admission.tryAdmitListing()).isFalse();
+        assertThat(admission.tryAdmitClaim()).isTrue();
+        admission.releaseListing();
+        assertThat(admission.tryAdmitListing()).isTrue();
+    }
+
+    private double rejected() {
+        return meterRegistry.find("boss.admission.rejected").counters().stream().mapToDouble(Counter::count).sum();
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d%s".formatted(server.getPort(), path)))
+                .timeout(CLIENT_TIMEOUT);
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws Exception {
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
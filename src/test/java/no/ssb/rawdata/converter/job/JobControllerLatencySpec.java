@@ -0,0 +1,92 @@
+package no.ssb.rawdata.converter.job;
+
+import de.huxhorn.sulky.ulid.ULID;
+import io.micronaut.context.annotation.Property;
+import io.micronaut.runtime.server.EmbeddedServer;
+import io.micronaut.test.annotation.MicronautTest;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.inject.Inject;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static java.time.temporal.ChronoUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Shows that other database calls keep their latency while slow queries hold some of the jdbc threads, i.e. that the
+ * slow queries neither block the event loop nor the calls behind them. Admission control is disabled, so that the slow
+ * claims are all made.
+ */
+@MicronautTest(environments = "slow-repository")
+@Property(name = "boss.jdbc.threads", value = "10")
+@Property(name = "boss.admission.enabled", value = "false")
+@Slf4j
+class JobControllerLatencySpec {
+
+    private static final Duration SLOW_QUERY = Duration.ofSeconds(2);
+    private static final int SLOW_QUERIES = 5;
+
+    @Inject
+    private EmbeddedServer server;
+
+    @Inject
+    private JobRepository repository;
+
+    private final HttpClient httpClient = HttpClient.newBuilder().build();
+
+    @BeforeEach
+    void clearJobRepository() {
+        repository.deleteAllJobs();
+    }
+
+    @Test
+    void thatDoneLatencyHoldsUnderConcurrentSlowQueries() throws Exception {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ids.add(new ULID().nextULID());
+            repository.createJob(ids.get(i), "fast", JobRepositoryContract.document("data"));
+        }
+
+        //Keep half of the jdbc threads busy with slow claims
+        List<CompletableFuture<HttpResponse<String>>> slowRequests = new ArrayList<>();
+        for (int i = 0; i < SLOW_QUERIES; i++) {
+            slowRequests.add(httpClient.sendAsync(request("/job/available/slow").GET().build(), HttpResponse.BodyHandlers.ofString()));
+        }
+
+        //Mark jobs as done meanwhile, which goes through the jdbc executor too
+        List<Long> latencies = new ArrayList<>();
+        for (String id : ids) {
+            long start = System.nanoTime();
+            assertThat(send(request("/job/done/fast/" + id).POST(HttpRequest.BodyPublishers.noBody()).build()).statusCode()).isEqualTo(200);
+            latencies.add(System.nanoTime() - start);
+        }
+        Collections.sort(latencies);
+        Duration p50 = Duration.ofNanos(latencies.get(latencies.size() / 2));
+        Duration p99 = Duration.ofNanos(latencies.get(latencies.size() * 99 / 100));
+        log.info("POST /job/done under {} concurrent slow queries: p50 {} ms, p99 {} ms", SLOW_QUERIES, p50.toMillis(), p99.toMillis());
+
+        assertThat(p50).isLessThan(SLOW_QUERY.dividedBy(4));
+        assertThat(p99).isLessThan(SLOW_QUERY);
+        CompletableFuture.allOf(slowRequests.toArray(CompletableFuture[]::new)).join();
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d%s".formatted(server.getPort(), path)))
+                .timeout(Duration.of(60, SECONDS));
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws Exception {
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
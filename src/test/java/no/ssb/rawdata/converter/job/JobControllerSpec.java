@@ -17,6 +17,8 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static java.time.temporal.ChronoUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -78,6 +80,41 @@ class JobControllerSpec {
                 .build(), HttpResponse.BodyHandlers.ofString()).statusCode()).isEqualTo(404);
     }
 
+    @Test
+    void thatActiveJobIsNoLongerActiveWhenDoneElsewhere() throws IOException, InterruptedException {
+        String id = new ULID().nextULID();
+        repository.createJob(id, "unknown", fromJson("""
+                {
+                    "topic": "colors",
+                    "initialPosition": "FIRST"
+                }
+                """, Job.Document.class));
+
+        //Take job and check on it, so that it's in the active job index
+        httpClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d/job/available/unknown".formatted(server.getPort())))
+                .GET()
+                .timeout(Duration.of(10, SECONDS))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        HttpRequest isActive = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d/job/active/unknown/%s".formatted(server.getPort(), id)))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .timeout(Duration.of(10, SECONDS))
+                .build();
+        assertThat(httpClient.send(isActive, HttpResponse.BodyHandlers.ofString()).statusCode()).isEqualTo(200);
+
+        //Mark job as done directly in the database, as another boss instance would
+        repository.jobDone(id, "unknown");
+
+        //HEAD /job/active/unknown/{id} should return 404 Not Found as soon as the notification has arrived
+        int statusCode = 200;
+        for (int i = 0; i < 50 && statusCode == 200; i++) {
+            Thread.sleep(100);
+            statusCode = httpClient.send(isActive, HttpResponse.BodyHandlers.ofString()).statusCode();
+        }
+        assertThat(statusCode).isEqualTo(404);
+    }
+
     @Test
     void thatCanGetAvailableJob() throws IOException, InterruptedException {
         //Create two jobs
@@ -260,6 +297,318 @@ class JobControllerSpec {
         assertThat(jobStored).isEqualTo(jobCreated);
     }
 
+    @Test
+    void thatLongPollIsWokenUpByNewJob() throws Exception {
+        CompletableFuture<HttpResponse<String>> pending = httpClient.sendAsync(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d/job/available/sirius?wait=20s".formatted(server.getPort())))
+                .GET()
+                .timeout(Duration.of(30, SECONDS))
+                .build(), HttpResponse.BodyHandlers.ofString());
+
+        //Should still be waiting when there are no available jobs
+        Thread.sleep(500);
+        assertThat(pending).isNotDone();
+
+        String id = new ULID().nextULID();
+        repository.createJob(id, "sirius", fromJson("""
+                {
+                    "topic": "owlsinthemoss",
+                    "initialPosition": "FIRST"
+                }
+                """, Job.Document.class));
+
+        //Should be woken up and get the new job long before the wait is over
+        HttpResponse<String> response = pending.get(5, TimeUnit.SECONDS);
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(fromJson(response.body(), Job.class).getId()).isEqualTo(id);
+    }
+
+    @Test
+    void thatLongPollTimesOut() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d/job/available?wait=1s".formatted(server.getPort())))
+                .GET()
+                .timeout(Duration.of(10, SECONDS))
+                .build(), HttpResponse.BodyHandlers.ofString());
+
+        assertThat(response.statusCode()).isEqualTo(404);
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void thatBulkSubmitReportsOutcomePerJob() throws IOException, InterruptedException {
+        repository.createJob("01EGP23ATM1D9B6CGC84APEA1Q", "altinn3", fromJson("""
+                {
+                    "topic": "existing",
+                    "initialPosition": "FIRST"
+                }
+                """, Job.Document.class));
+
+        HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d/job/available".formatted(server.getPort())))
+                .header("Content-Type", MediaType.APPLICATION_JSON)
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        """
+                                [
+                                  {"id": "01EGP23ATM1D9B6CGC84APEA1Q", "source": "altinn3", "document": {"topic": "a"}},
+                                  {"id": "01EGP23ATM1D9B6CGC84APEA1R", "source": "altinn3", "document": {"topic": "b"}},
+                                  {"id": "01EGP23ATM1D9B6CGC84APEA1R", "source": "altinn3", "document": {"topic": "c"}},
+                                  {"id": "not-an-ulid", "source": "altinn3", "document": {"topic": "d"}},
+                                  {"source": "freg", "document": {"topic": "e"}}
+                                ]
+                                """
+                ))
+                .timeout(Duration.of(10, SECONDS))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertThat(response.statusCode()).isEqualTo(200);
+
+        List<Job.SubmissionResult> results = List.of(fromJson(response.body(), Job.SubmissionResult[].class));
+        assertThat(results).extracting(Job.SubmissionResult::getOutcome).containsExactly(
+                Job.SubmissionResult.Outcome.CONFLICT,
+                Job.SubmissionResult.Outcome.CREATED,
+                Job.SubmissionResult.Outcome.CONFLICT,
+                Job.SubmissionResult.Outcome.INVALID,
+                Job.SubmissionResult.Outcome.CREATED
+        );
+        assertThat(results.get(4).getId()).isNotNull();
+
+        List<Job> got = repository.readAllJobs();
+        assertThat(got).hasSize(3);
+        assertThat(got).extracting(job -> job.getDocument().getTopic()).containsExactlyInAnyOrder("existing", "b", "e");
+    }
+
+    @Test
+    void thatBulkSubmitAcceptsJsonStream() throws IOException, InterruptedException {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 2500; i++) {
+            body.append("""
+                    {"source": "freg", "document": {"topic": "topic-%d", "initialPosition": "FIRST"}}
+                    """.formatted(i));
+        }
+
+        HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d/job/available".formatted(server.getPort())))
+                .header("Content-Type", "application/x-json-stream")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .timeout(Duration.of(30, SECONDS))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertThat(response.statusCode()).isEqualTo(200);
+
+        List<Job.SubmissionResult> results = List.of(fromJson(response.body(), Job.SubmissionResult[].class));
+        assertThat(results).hasSize(2500);
+        assertThat(results).allMatch(result -> result.getOutcome() == Job.SubmissionResult.Outcome.CREATED);
+        assertThat(repository.readAllJobs()).hasSize(2500);
+    }
+
+    @Test
+    void thatCanClaimManyJobsAtOnce() throws IOException, InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            repository.createJob(new ULID().nextULID(), "freg", fromJson("""
+                    {
+                        "topic": "topic-%d",
+                        "initialPosition": "FIRST"
+                    }
+                    """.formatted(i), Job.Document.class));
+        }
+
+        HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d/job/available/freg?max=3".formatted(server.getPort())))
+                .GET()
+                .timeout(Duration.of(10, SECONDS))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertThat(response.statusCode()).isEqualTo(200);
+        List<Job> firstClaim = List.of(fromJson(response.body(), Job[].class));
+        assertThat(firstClaim).extracting(job -> job.getDocument().getTopic()).containsExactly("topic-0", "topic-1", "topic-2");
+        assertThat(firstClaim).allMatch(job -> job.getStatus() == Job.Status.ACTIVE);
+
+        //Should only get what's left
+        response = httpClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d/job/available?max=3".formatted(server.getPort())))
+                .GET()
+                .timeout(Duration.of(10, SECONDS))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertThat(List.of(fromJson(response.body(), Job[].class))).extracting(job -> job.getDocument().getTopic()).containsExactly("topic-3", "topic-4");
+
+        //Should receive 404 when there are no available jobs
+        assertThat(httpClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d/job/available/freg?max=3".formatted(server.getPort())))
+                .GET()
+                .timeout(Duration.of(10, SECONDS))
+                .build(), HttpResponse.BodyHandlers.ofString())
+                .statusCode()).isEqualTo(404);
+    }
+
+    @Test
+    void thatClaimPrefersJobsMatchingAffinity() throws IOException, InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            repository.createJob(new ULID().nextULID(), "freg", fromJson("""
+                    {"topic": "topic-%d", "initialPosition": "FIRST"}
+                    """.formatted(i), Job.Document.class));
+        }
+
+        for (String expected : List.of("topic-2", "topic-0", "topic-1")) {
+            HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:%d/job/available/freg?topic=topic-2".formatted(server.getPort())))
+                    .GET()
+                    .timeout(Duration.of(10, SECONDS))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            assertThat(response.statusCode()).isEqualTo(200);
+            assertThat(fromJson(response.body(), Job.class).getDocument().getTopic()).isEqualTo(expected);
+        }
+
+        //A claim of many jobs is topped up with jobs that don't match
+        for (int i = 0; i < 3; i++) {
+            repository.createJob(new ULID().nextULID(), "freg", fromJson("""
+                    {"topic": "topic-%d", "initialPosition": "FIRST"}
+                    """.formatted(i), Job.Document.class));
+        }
+        HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d/job/available?max=10&topic=topic-1".formatted(server.getPort())))
+                .GET()
+                .timeout(Duration.of(10, SECONDS))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertThat(List.of(fromJson(response.body(), Job[].class))).extracting(job -> job.getDocument().getTopic())
+                .containsExactly("topic-1", "topic-0", "topic-2");
+    }
+
+    @Test
+    void thatCanCheckAndFinishManyJobsAtOnce() throws IOException, InterruptedException {
+        String active = new ULID().nextULID();
+        String available = new ULID().nextULID();
+        repository.createJob(active, "freg", fromJson("""
+                {"topic": "active", "initialPosition": "FIRST"}
+                """, Job.Document.class));
+        repository.findAvailableJob("freg");
+        repository.createJob(available, "freg", fromJson("""
+                {"topic": "available", "initialPosition": "FIRST"}
+                """, Job.Document.class));
+        String jobs = """
+                [
+                  {"id": "%s", "source": "freg"},
+                  {"id": "%s", "source": "freg"},
+                  {"id": "%s", "source": "sirius"}
+                ]
+                """.formatted(active, available, active);
+
+        HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d/job/active/check".formatted(server.getPort())))
+                .header("Content-Type", MediaType.APPLICATION_JSON)
+                .POST(HttpRequest.BodyPublishers.ofString(jobs))
+                .timeout(Duration.of(10, SECONDS))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(List.of(fromJson(response.body(), Job.ActiveResult[].class))).extracting(Job.ActiveResult::isActive).containsExactly(true, false, false);
+
+        response = httpClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d/job/done".formatted(server.getPort())))
+                .header("Content-Type", MediaType.APPLICATION_JSON)
+                .POST(HttpRequest.BodyPublishers.ofString(jobs))
+                .timeout(Duration.of(10, SECONDS))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(List.of(fromJson(response.body(), Job.DoneResult[].class))).extracting(Job.DoneResult::isDone).containsExactly(true, true, false);
+
+        //Done jobs are no longer active, also when they were in the active job index
+        response = httpClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d/job/active/check".formatted(server.getPort())))
+                .header("Content-Type", MediaType.APPLICATION_JSON)
+                .POST(HttpRequest.BodyPublishers.ofString(jobs))
+                .timeout(Duration.of(10, SECONDS))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertThat(List.of(fromJson(response.body(), Job.ActiveResult[].class))).extracting(Job.ActiveResult::isActive).containsExactly(false, false, false);
+    }
+
+    @Test
+    void thatCanSubmitShardedJob() throws IOException, InterruptedException {
+        String body = """
+                {
+                  "id": "01EGP23ATM1D9B6CGC84APEA1Q",
+                  "document": {"topic": "big", "initialPosition": "FIRST"},
+                  "boundaries": ["1000", "2000"]
+                }
+                """;
+        HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d/job/sharded/freg".formatted(server.getPort())))
+                .header("Content-Type", MediaType.APPLICATION_JSON)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .timeout(Duration.of(10, SECONDS))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertThat(response.statusCode()).isEqualTo(201);
+        Job.ShardedResult result = fromJson(response.body(), Job.ShardedResult.class);
+        assertThat(result.getId()).isEqualTo("01EGP23ATM1D9B6CGC84APEA1Q");
+        assertThat(result.getShards()).hasSize(3);
+        assertThat(repository.findAvailableJobs("freg", "converter-1", 10)).extracting(Job::getId).containsExactlyInAnyOrderElementsOf(result.getShards());
+
+        //Same id again
+        assertThat(httpClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d/job/sharded/freg".formatted(server.getPort())))
+                .header("Content-Type", MediaType.APPLICATION_JSON)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .timeout(Duration.of(10, SECONDS))
+                .build(), HttpResponse.BodyHandlers.ofString()).statusCode()).isEqualTo(409);
+    }
+
+    @Test
+    void thatUniqueSubmissionGivesUnfinishedJob() throws IOException, InterruptedException {
+        String document = """
+                {"storageRoot": "gs://bucket", "topic": "data", "initialPosition": "FIRST"}
+                """;
+        HttpResponse<String> created = httpClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d/job/available/freg?unique=true".formatted(server.getPort())))
+                .header("Content-Type", MediaType.APPLICATION_JSON)
+                .POST(HttpRequest.BodyPublishers.ofString(document))
+                .timeout(Duration.of(10, SECONDS))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertThat(created.statusCode()).isEqualTo(201);
+        String id = fromJson(created.body(), Job.class).getId();
+
+        HttpResponse<String> duplicate = httpClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d/job/available/freg?unique=true".formatted(server.getPort())))
+                .header("Content-Type", MediaType.APPLICATION_JSON)
+                .POST(HttpRequest.BodyPublishers.ofString(document))
+                .timeout(Duration.of(10, SECONDS))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertThat(duplicate.statusCode()).isEqualTo(200);
+        Job.SubmissionResult result = fromJson(duplicate.body(), Job.SubmissionResult.class);
+        assertThat(result.getId()).isEqualTo(id);
+        assertThat(result.getOutcome()).isEqualTo(Job.SubmissionResult.Outcome.DUPLICATE);
+        assertThat(repository.readAllJobs()).hasSize(1);
+    }
+
+    @Test
+    void thatJobsAreListedInPages() throws IOException, InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            repository.createJob(new ULID().nextULID(), "freg", fromJson("""
+                    {"topic": "topic-%d", "initialPosition": "FIRST"}
+                    """.formatted(i), Job.Document.class));
+        }
+
+        HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d/job?source=freg&status=available&limit=3".formatted(server.getPort())))
+                .GET()
+                .timeout(Duration.of(10, SECONDS))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertThat(response.statusCode()).isEqualTo(200);
+        List<Job> firstPage = List.of(fromJson(response.body(), Job[].class));
+        assertThat(firstPage).hasSize(3);
+
+        response = httpClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d/job?source=freg&after=%s".formatted(server.getPort(), firstPage.get(2).getId())))
+                .GET()
+                .timeout(Duration.of(10, SECONDS))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        List<Job> secondPage = List.of(fromJson(response.body(), Job[].class));
+        assertThat(secondPage).hasSize(2);
+        assertThat(secondPage.get(0).getId()).isGreaterThan(firstPage.get(2).getId());
+
+        assertThat(httpClient.send(HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:%d/job?status=unknown".formatted(server.getPort())))
+                .GET()
+                .timeout(Duration.of(10, SECONDS))
+                .build(), HttpResponse.BodyHandlers.ofString()).statusCode()).isEqualTo(400);
+    }
+
     private static <T> T fromJson(String json, Class<T> clazz) {
         try {
             return new ObjectMapper().readValue(json, clazz);
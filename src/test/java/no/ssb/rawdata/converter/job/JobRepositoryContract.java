@@ -0,0 +1,381 @@
+package no.ssb.rawdata.converter.job;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.huxhorn.sulky.ulid.ULID;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests that every {@link JobRepository} implementation must pass. The repository is expected to be empty when a
+ * test starts.
+ */
+@Slf4j
+abstract class JobRepositoryContract {
+
+    abstract JobRepository repository();
+
+    abstract MeterRegistry meterRegistry();
+
+    @Test
+    void thatConcurrentClaimersNeverGetTheSameJob() throws Exception {
+        JobRepository repository = repository();
+        int jobCount = 2000;
+        int claimerCount = 16;
+        for (int i = 0; i < jobCount; i++) {
+            repository.createJob(new ULID().nextULID(), "source-" + (i % 4), document("topic-" + i));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(claimerCount);
+        List<Callable<List<String>>> claimers = new ArrayList<>();
+        for (int i = 0; i < claimerCount; i++) {
+            String claimant = "converter-" + i;
+            claimers.add(() -> {
+                List<String> claimed = new ArrayList<>();
+                Job job;
+                while ((job = repository.findAvailableJob(null, claimant)) != null) {
+                    claimed.add(job.getId());
+                }
+                return claimed;
+            });
+        }
+
+        long start = System.nanoTime();
+        List<String> claimedIds = new ArrayList<>();
+        for (Future<List<String>> future : executor.invokeAll(claimers)) {
+            claimedIds.addAll(future.get());
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000d;
+        executor.shutdown();
+
+        log.info("{}: {} claimers claimed {} jobs in {} s ({} claims/sec)", repository.getClass().getSimpleName(),
+                claimerCount, claimedIds.size(), "%.3f".formatted(seconds), "%.0f".formatted(claimedIds.size() / seconds));
+
+        Set<String> uniqueIds = new HashSet<>(claimedIds);
+        assertThat(uniqueIds).hasSize(claimedIds.size());
+        assertThat(claimedIds).hasSize(jobCount);
+    }
+
+    @Test
+    void thatJobsAreClaimedByPriority() {
+        JobRepository repository = repository();
+        String routine = new ULID().nextULID();
+        String urgent = new ULID().nextULID();
+        String backfill = new ULID().nextULID();
+        repository.createJob(routine, "freg", document("routine"));
+        repository.createJob(urgent, "freg", 5, document("urgent"));
+        repository.createJob(backfill, "freg", -1, document("backfill"));
+
+        assertThat(repository.findAvailableJobs("freg", "converter-1", 3))
+                .extracting(Job::getId)
+                .containsExactly(urgent, routine, backfill);
+    }
+
+    @Test
+    void thatClaimIsRestrictedToSource() {
+        JobRepository repository = repository();
+        String freg = new ULID().nextULID();
+        String sirius = new ULID().nextULID();
+        repository.createJob(freg, "freg", document("a"));
+        repository.createJob(sirius, "sirius", document("b"));
+
+        assertThat(repository.findAvailableRawJobs("sirius", "converter-1", 10)).extracting(RawJob::getId).containsExactly(sirius);
+        assertThat(repository.findAvailableRawJobs(null, List.of("freg"), "converter-1", 10)).isEmpty();
+        assertThat(repository.findAvailableRawJobs(null, "converter-1", 10)).extracting(RawJob::getId).containsExactly(freg);
+    }
+
+    @Test
+    void thatOnlyJobsMatchingAffinityAreClaimed() {
+        JobRepository repository = repository();
+        String first = new ULID().nextULID();
+        repository.createJob(first, "freg", document("data"));
+        String matching = new ULID().nextULID();
+        repository.createJob(matching, "freg", document("events"));
+        Job.Document elsewhere = document("events");
+        elsewhere.setStorageRoot("gs://other");
+        repository.createJob(new ULID().nextULID(), "freg", elsewhere);
+
+        assertThat(repository.findAvailableRawJobs(null, List.of(), Job.Affinity.of("gs://bucket", "events"), "converter-1", 10))
+                .extracting(RawJob::getId).containsExactly(matching);
+        assertThat(repository.findAvailableRawJobs("freg", List.of(), Job.Affinity.of("gs://bucket", "events"), "converter-1", 10)).isEmpty();
+        assertThat(repository.findAvailableRawJobs("freg", List.of(), Job.Affinity.of("gs://bucket", null), "converter-1", 10))
+                .extracting(RawJob::getId).containsExactly(first);
+    }
+
+    @Test
+    void thatOnlyActiveJobLeaseCanBeRenewed() {
+        JobRepository repository = repository();
+        String id = new ULID().nextULID();
+        repository.createJob(id, "freg", document("data"));
+        assertThat(repository.renewLease(id, "freg")).isZero();
+
+        repository.findAvailableJob("freg", "converter-1");
+        assertThat(repository.renewLease(id, "freg")).isEqualTo(1);
+        assertThat(repository.renewLease(id, "sirius")).isZero();
+        assertThat(repository.releaseExpiredLeases()).isZero();
+
+        assertThat(repository.jobDone(id, "freg")).isEqualTo(1);
+        assertThat(repository.renewLease(id, "freg")).isZero();
+        assertThat(repository.readJob(id, Job.Status.DONE, "freg")).isNotNull();
+    }
+
+    @Test
+    void thatManyJobsAreRenewedAndDoneAtOnce() {
+        JobRepository repository = repository();
+        String active = new ULID().nextULID();
+        String available = new ULID().nextULID();
+        String unknown = new ULID().nextULID();
+        repository.createJob(active, "freg", document("active"));
+        repository.findAvailableJob("freg", "converter-1");
+        repository.createJob(available, "freg", document("available"));
+
+        List<Job.Key> keys = List.of(Job.Key.of(active, "freg"), Job.Key.of(available, "freg"), Job.Key.of(unknown, "freg"), Job.Key.of(active, "sirius"));
+        assertThat(repository.renewLeases(keys)).containsExactly(active);
+
+        assertThat(repository.jobsDone(keys)).containsExactlyInAnyOrder(active, available);
+        assertThat(repository.readJob(active, Job.Status.DONE, "freg")).isNotNull();
+        assertThat(repository.readJob(available, Job.Status.DONE, "freg")).isNotNull();
+        assertThat(repository.renewLeases(keys)).isEmpty();
+        assertThat(repository.jobsDone(keys)).containsExactlyInAnyOrder(active, available);
+    }
+
+    @Test
+    void thatOnlyActiveJobsAreCheckpointed() {
+        JobRepository repository = repository();
+        String active = new ULID().nextULID();
+        String available = new ULID().nextULID();
+        repository.createJob(active, "freg", document("active"));
+        repository.findAvailableJob("freg", "converter-1");
+        repository.createJob(available, "freg", document("available"));
+
+        assertThat(repository.saveCheckpoints(Map.of(
+                Job.Key.of(active, "freg"), "position-1",
+                Job.Key.of(available, "freg"), "position-2",
+                Job.Key.of(active, "sirius"), "position-3"
+        ))).isEqualTo(1);
+
+        //The document itself is unchanged, and a claim of a job without a checkpoint starts from its initial position
+        assertThat(repository.readJob(active, Job.Status.ACTIVE, "freg").getDocument().getInitialPosition()).isEqualTo("FIRST");
+        assertThat(repository.findAvailableJob("freg", "converter-1").getDocument().getInitialPosition()).isEqualTo("FIRST");
+    }
+
+    @Test
+    void thatShardedJobIsDoneWhenAllItsShardsAreDone() {
+        JobRepository repository = repository();
+        String id = new ULID().nextULID();
+        List<String> shards = repository.createShardedJob(id, "freg", Job.DEFAULT_PRIORITY, document("data"), List.of("100", "200"));
+        assertThat(shards).hasSize(3);
+        assertThat(repository.createShardedJob(id, "freg", Job.DEFAULT_PRIORITY, document("data"), List.of("100"))).isEmpty();
+
+        List<Job> claimed = repository.findAvailableJobs("freg", "converter-1", 10);
+        assertThat(claimed).extracting(Job::getId).containsExactlyInAnyOrderElementsOf(shards);
+        assertThat(claimed).extracting(job -> job.getDocument().getInitialPosition() + ".." + job.getDocument().getEndPosition())
+                .containsExactlyInAnyOrder("FIRST..100", "100..200", "200..null");
+
+        repository.jobDone(shards.get(0), "freg");
+        repository.jobDone(shards.get(0), "freg");
+        repository.jobsDone(List.of(Job.Key.of(shards.get(1), "freg")));
+        assertThat(repository.readJob(id, Job.Status.SHARDED, "freg")).isNotNull();
+
+        repository.jobDone(shards.get(2), "freg");
+        assertThat(repository.readJob(id, Job.Status.DONE, "freg")).isNotNull();
+    }
+
+    @Test
+    void thatStoppingShardedJobStopsItsShards() {
+        JobRepository repository = repository();
+        String id = new ULID().nextULID();
+        List<String> shards = repository.createShardedJob(id, "freg", Job.DEFAULT_PRIORITY, document("data"), List.of("100"));
+        repository.findAvailableJob("freg", "converter-1");
+
+        assertThat(repository.jobDone(id, "freg")).isEqualTo(1);
+
+        assertThat(repository.readJob(id, Job.Status.DONE, "freg")).isNotNull();
+        for (String shard : shards) {
+            assertThat(repository.readJob(shard, Job.Status.DONE, "freg")).isNotNull();
+        }
+        assertThat(repository.findAvailableJob("freg", "converter-1")).isNull();
+    }
+
+    @Test
+    void thatJobsAreListedInPagesById() {
+        JobRepository repository = repository();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            String id = new ULID().nextULID();
+            repository.createJob(id, i < 4 ? "freg" : "sirius", document("topic-" + i));
+            ids.add(id);
+        }
+        repository.jobDone(ids.get(1), "freg");
+        ids.sort(null);
+
+        List<String> firstPage = listJobIds(repository, null, null, null, 3);
+        assertThat(firstPage).containsExactlyElementsOf(ids.subList(0, 3));
+        assertThat(listJobIds(repository, null, null, firstPage.get(2), 3)).containsExactlyElementsOf(ids.subList(3, 5));
+
+        assertThat(listJobIds(repository, Job.Status.AVAILABLE, "freg", null, 10)).hasSize(3);
+        assertThat(listJobIds(repository, Job.Status.DONE, null, null, 10)).hasSize(1);
+        assertThat(listJobIds(repository, null, "sirius", null, 10)).hasSize(1);
+    }
+
+    private static List<String> listJobIds(JobRepository repository, Job.Status status, String source, String after, int limit) {
+        List<String> ids = new ArrayList<>();
+        try (JobCursor cursor = repository.listJobs(status, source, after, limit)) {
+            cursor.forEachRemaining(job -> ids.add(job.getId()));
+        }
+        return ids;
+    }
+
+    @Test
+    void thatBulkCreateReportsOutcomePerJob() {
+        JobRepository repository = repository();
+        String existing = new ULID().nextULID();
+        repository.createJob(existing, "freg", document("data"));
+
+        List<Job.SubmissionResult> results = repository.createJobs(List.of(
+                submission(existing, "freg"),
+                submission(null, "freg"),
+                submission("not-an-ulid", "freg"),
+                submission(null, null)
+        ));
+
+        assertThat(results).extracting(Job.SubmissionResult::getOutcome).containsExactly(
+                Job.SubmissionResult.Outcome.CONFLICT,
+                Job.SubmissionResult.Outcome.CREATED,
+                Job.SubmissionResult.Outcome.INVALID,
+                Job.SubmissionResult.Outcome.INVALID
+        );
+        assertThat(repository.readAllJobs()).hasSize(2);
+    }
+
+    @Test
+    void thatUniqueSubmissionOfUnfinishedJobGivesExistingJob() {
+        JobRepository repository = repository();
+        String first = new ULID().nextULID();
+        assertThat(repository.createUniqueJob(first, "freg", Job.DEFAULT_PRIORITY, document("data")).getOutcome()).isEqualTo(Job.SubmissionResult.Outcome.CREATED);
+
+        Job.SubmissionResult duplicate = repository.createUniqueJob(new ULID().nextULID(), "freg", Job.DEFAULT_PRIORITY, document("data"));
+        assertThat(duplicate.getOutcome()).isEqualTo(Job.SubmissionResult.Outcome.DUPLICATE);
+        assertThat(duplicate.getId()).isEqualTo(first);
+        assertThat(repository.createUniqueJob(new ULID().nextULID(), "sirius", Job.DEFAULT_PRIORITY, document("data")).getOutcome())
+                .isEqualTo(Job.SubmissionResult.Outcome.CREATED);
+
+        List<Job.SubmissionResult> results = repository.createJobs(List.of(
+                submission(null, "freg"),
+                fregSubmission("other"),
+                fregSubmission("other")
+        ), true);
+        assertThat(results).extracting(Job.SubmissionResult::getOutcome).containsExactly(
+                Job.SubmissionResult.Outcome.DUPLICATE,
+                Job.SubmissionResult.Outcome.CREATED,
+                Job.SubmissionResult.Outcome.DUPLICATE
+        );
+        assertThat(results.get(0).getId()).isEqualTo(first);
+        assertThat(results.get(2).getId()).isEqualTo(results.get(1).getId());
+
+        //Submissions that aren't unique are always created, and a done job no longer counts
+        assertThat(repository.createJob(new ULID().nextULID(), "freg", document("data"))).isEqualTo(1);
+        repository.jobDone(first, "freg");
+        assertThat(repository.createUniqueJob(new ULID().nextULID(), "freg", Job.DEFAULT_PRIORITY, document("data")).getOutcome())
+                .isEqualTo(Job.SubmissionResult.Outcome.CREATED);
+    }
+
+    @Test
+    void thatDoneJobsAreArchivedInBatches() {
+        JobRepository repository = repository();
+        List<String> ids = List.of(new ULID().nextULID(), new ULID().nextULID(), new ULID().nextULID());
+        for (String id : ids) {
+            repository.createJob(id, "freg", document(id));
+        }
+        repository.jobDone(ids.get(0), "freg");
+        repository.jobDone(ids.get(1), "freg");
+
+        assertThat(repository.archiveDoneJobs(Duration.ofHours(1), 10)).isZero();
+        assertThat(repository.archiveDoneJobs(Duration.ZERO, 1)).isEqualTo(1);
+        assertThat(repository.archiveDoneJobs(Duration.ZERO, 1)).isEqualTo(1);
+        assertThat(repository.archiveDoneJobs(Duration.ZERO, 1)).isZero();
+
+        assertThat(repository.readAllJobs()).extracting(Job::getId).containsExactly(ids.get(2));
+        assertThat(repository.readAllJobs(true)).extracting(Job::getId).containsExactlyInAnyOrderElementsOf(ids);
+        assertThat(repository.readJob(ids.get(0), Job.Status.DONE, "freg")).isNull();
+        assertThat(repository.readJob(ids.get(0), Job.Status.DONE, "freg", true)).isNotNull();
+    }
+
+    @Test
+    void thatArchivedIdsArentReused() {
+        JobRepository repository = repository();
+        String id = new ULID().nextULID();
+        repository.createJob(id, "freg", document("first"));
+        repository.jobDone(id, "freg");
+        assertThat(repository.archiveDoneJobs(Duration.ZERO, 10)).isEqualTo(1);
+
+        assertThat(repository.createJob(id, "freg", document("second"))).isZero();
+        assertThat(repository.createJobs(List.of(submission(id, "freg")))).extracting(Job.SubmissionResult::getOutcome)
+                .containsExactly(Job.SubmissionResult.Outcome.CONFLICT);
+        assertThat(repository.createShardedJob(id, "freg", Job.DEFAULT_PRIORITY, document("third"), List.of("1"))).isEmpty();
+        assertThat(repository.readAllJobs()).isEmpty();
+
+        assertThat(repository.archiveDoneJobs(Duration.ZERO, 10)).isZero();
+        assertThat(repository.readJob(id, Job.Status.DONE, "freg", true).getDocument().getTopic()).isEqualTo("first");
+    }
+
+    @Test
+    void thatCountsJobsAndRecordsTimeInState() {
+        JobRepository repository = repository();
+        repository.createJob(new ULID().nextULID(), "freg", document("a"));
+        repository.createJob(new ULID().nextULID(), "freg", document("b"));
+        repository.createJob(new ULID().nextULID(), "sirius", document("c"));
+        Job job = repository.findAvailableJob("freg", "converter-1");
+        repository.jobDone(job.getId(), "freg");
+
+        assertThat(repository.countJobs()).isEqualTo(Map.of(
+                "freg", Map.of(Job.Status.AVAILABLE, 1L, Job.Status.DONE, 1L),
+                "sirius", Map.of(Job.Status.AVAILABLE, 1L)
+        ));
+        assertThat(meterRegistry().get("boss.job.available.time").tag("source", "freg").timer().count()).isPositive();
+        assertThat(meterRegistry().get("boss.job.active.time").tag("source", "freg").timer().count()).isPositive();
+    }
+
+    static Job.Submission submission(String id, String source) {
+        Job.Submission submission = new Job.Submission();
+        submission.setId(id);
+        submission.setSource(source);
+        submission.setDocument(document("data"));
+        return submission;
+    }
+
+    private static Job.Submission fregSubmission(String topic) {
+        Job.Submission submission = new Job.Submission();
+        submission.setSource("freg");
+        submission.setDocument(document(topic));
+        return submission;
+    }
+
+    static Job.Document document(String topic) {
+        try {
+            return new ObjectMapper().readValue("""
+                    {
+                        "storageRoot": "gs://bucket",
+                        "topic": "%s",
+                        "initialPosition": "FIRST"
+                    }
+                    """.formatted(topic), Job.Document.class);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package no.ssb.rawdata.converter.job;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.huxhorn.sulky.ulid.ULID;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micronaut.test.annotation.MicronautTest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.inject.Inject;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@MicronautTest
+class JobRepositorySpec extends JobRepositoryContract {
+
+    @Inject
+    private JobRepository repository;
+
+    @Inject
+    private DataSource dataSource;
+
+    @Inject
+    private MeterRegistry meterRegistry;
+
+    @Inject
+    private JobProgressBuffer progressBuffer;
+
+    @Override
+    JobRepository repository() {
+        return repository;
+    }
+
+    @Override
+    MeterRegistry meterRegistry() {
+        return meterRegistry;
+    }
+
+    @BeforeEach
+    void clearJobRepository() {
+        repository.deleteAllJobs();
+    }
+
+    @Test
+    void thatClaimRecordsClaimantAndLease() throws SQLException {
+        String id = new ULID().nextULID();
+        repository.createJob(id, "freg", document("data"));
+
+        assertThat(repository.findAvailableJob("freg", "converter-1").getId()).isEqualTo(id);
+
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement ps = con.prepareStatement("SELECT claimed_by, leased_until > now() AS leased FROM job WHERE id = ?");
+            ps.setString(1, id);
+            ResultSet rs = ps.executeQuery();
+            assertThat(rs.next()).isTrue();
+            assertThat(rs.getString("claimed_by")).isEqualTo("converter-1");
+            assertThat(rs.getBoolean("leased")).isTrue();
+        }
+    }
+
+    @Test
+    void thatExpiredLeaseIsReleased() throws SQLException {
+        String id = new ULID().nextULID();
+        repository.createJob(id, "freg", document("data"));
+        repository.findAvailableJob("freg", "converter-1");
+
+        assertThat(repository.releaseExpiredLeases()).isZero();
+        assertThat(repository.renewLease(id, "freg")).isEqualTo(1);
+
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement ps = con.prepareStatement("UPDATE job SET leased_until = now() - interval '1 second' WHERE id = ?");
+            ps.setString(1, id);
+            ps.executeUpdate();
+        }
+
+        assertThat(repository.releaseExpiredLeases()).isEqualTo(1);
+        assertThat(repository.readJob(id, Job.Status.AVAILABLE, "freg")).isNotNull();
+        assertThat(repository.renewLease(id, "freg")).isZero();
+    }
+
+    @Test
+    void thatRoutineJobIsNotStarvedByUrgentJobs() throws SQLException {
+        String routine = new ULID().nextULID();
+        String urgent = new ULID().nextULID();
+        repository.createJob(routine, "freg", document("routine"));
+
+        //A routine job that has waited longer than 5 aging steps (default 1m) goes before a new urgent job
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement ps = con.prepareStatement("UPDATE job SET claim_rank = claim_rank - interval '6 minutes' WHERE id = ?");
+            ps.setString(1, routine);
+            ps.executeUpdate();
+        }
+        repository.createJob(urgent, "freg", 5, document("urgent"));
+
+        assertThat(repository.findAvailableJob(null, "converter-1").getId()).isEqualTo(routine);
+    }
+
+    @Test
+    void thatReclaimedJobResumesFromLatestReportedPosition() throws SQLException {
+        String id = new ULID().nextULID();
+        repository.createJob(id, "freg", document("data"));
+        repository.findAvailableJob("freg", "converter-1");
+
+        progressBuffer.report(id, "freg", "position-1");
+        progressBuffer.report(id, "freg", "position-2");
+        progressBuffer.flush();
+
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement ps = con.prepareStatement("UPDATE job SET leased_until = now() - interval '1 second' WHERE id = ?");
+            ps.setString(1, id);
+            ps.executeUpdate();
+        }
+        assertThat(repository.releaseExpiredLeases()).isEqualTo(1);
+
+        assertThat(repository.findAvailableJob("freg", "converter-2").getDocument().getInitialPosition()).isEqualTo("position-2");
+    }
+
+    @Test
+    void thatPseudoConfigIsStoredOnceAndShared() throws Exception {
+        String single = new ULID().nextULID();
+        repository.createJob(single, "freg", withPseudoConfig(document("single")));
+        List<Job.Submission> submissions = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Job.Submission submission = new Job.Submission();
+            submission.setSource("freg");
+            submission.setDocument(withPseudoConfig(document("bulk-" + i)));
+            submissions.add(submission);
+        }
+        repository.createJobs(submissions);
+
+        try (Connection con = dataSource.getConnection()) {
+            ResultSet rs = con.createStatement().executeQuery("""
+                    SELECT count(DISTINCT pseudo_config_hash) AS hashes, count(*) FILTER (WHERE document ? 'pseudoConfig') AS embedded FROM job
+                    """);
+            assertThat(rs.next()).isTrue();
+            assertThat(rs.getInt("hashes")).isEqualTo(1);
+            assertThat(rs.getInt("embedded")).isZero();
+        }
+
+        Job job = repository.readJob(single, Job.Status.AVAILABLE, "freg", false);
+        Job other = repository.readJob(submissions.get(0).getId(), Job.Status.AVAILABLE, "freg", false);
+        assertThat(job.getDocument().getPseudoConfig().getRules()).extracting(Job.PseudoFuncRule::getName).containsExactly("fnr");
+        assertThat(other.getDocument().getPseudoConfig()).isSameAs(job.getDocument().getPseudoConfig());
+
+        assertThat(repository.findAvailableRawJobs("freg", "converter-1", 4))
+                .extracting(rawJob -> rawJob.toJob(new ObjectMapper()).getDocument().getPseudoConfig())
+                .containsOnly(job.getDocument().getPseudoConfig());
+    }
+
+    private static Job.Document withPseudoConfig(Job.Document document) throws JsonProcessingException {
+        document.setPseudoConfig(new ObjectMapper().readValue("""
+                {"rules": [{"name": "fnr", "pattern": "**/fnr", "func": "fpe-fnr(secret1)"}]}
+                """, Job.PseudoConfig.class));
+        return document;
+    }
+}
@@ -0,0 +1,91 @@
+package no.ssb.rawdata.converter.job;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class JobSchedulerSpec {
+
+    @Test
+    void thatClaimsAreSharedAccordingToWeights() {
+        JobScheduler scheduler = scheduler(source("freg", 1, null), source("altinn3", 3, null), source("sirius", 1, 5));
+        Map<String, Long> available = new HashMap<>(Map.of("freg", 20_000L, "altinn3", 20_000L, "sirius", 20_000L));
+        Map<String, Long> active = new HashMap<>();
+
+        Map<String, Long> claimed = simulate(scheduler, available, active, 4_000);
+
+        //sirius is held at its max active jobs, the rest is shared 1:3
+        assertThat(claimed.get("sirius")).isEqualTo(5);
+        assertThat((double) claimed.get("altinn3") / claimed.get("freg")).isCloseTo(3.0, within(0.05));
+    }
+
+    @Test
+    void thatIdleSourceDoesNotCatchUpOnMissedClaims() {
+        JobScheduler scheduler = scheduler(source("freg", 1, null), source("altinn3", 1, null));
+        Map<String, Long> available = new HashMap<>(Map.of("freg", 20_000L));
+        Map<String, Long> active = new HashMap<>();
+
+        //freg has the boss to itself for a while
+        simulate(scheduler, available, active, 1_000);
+
+        //then altinn3 gets a backlog too, and should share evenly with freg from now on, not starve it
+        available.put("altinn3", 20_000L);
+        Map<String, Long> claimed = simulate(scheduler, available, active, 1_000);
+        assertThat(claimed.get("freg")).isCloseTo(500L, within(1L));
+        assertThat(claimed.get("altinn3")).isCloseTo(500L, within(1L));
+    }
+
+    @Test
+    void thatSourcesWithoutAvailableJobsAreSkipped() {
+        JobScheduler scheduler = scheduler(source("freg", 10, null));
+        List<String> sources = scheduler.nextSources(Map.of("freg", 0L, "altinn3", 1L), Map.of());
+        assertThat(sources).containsExactly("altinn3");
+    }
+
+    @Test
+    void thatBatchClaimsDontGoOverMaxActive() {
+        JobScheduler scheduler = scheduler(source("freg", 1, null), source("sirius", 1, 5), source("altinn3", 1, 2));
+        Map<String, Long> active = Map.of("sirius", 3L, "altinn3", 2L);
+
+        assertThat(scheduler.claimLimit("freg", 10, active)).isEqualTo(10);
+        assertThat(scheduler.claimLimit("sirius", 10, active)).isEqualTo(2);
+        assertThat(scheduler.claimLimit("altinn3", 10, active)).isZero();
+        //altinn3 is excluded from claims from any source, so only sirius limits them
+        assertThat(scheduler.anySourceClaimLimit(10, active)).isEqualTo(2);
+    }
+
+    /**
+     * Claims one job at a time from the first source in turn, and never finishes them.
+     */
+    private static Map<String, Long> simulate(JobScheduler scheduler, Map<String, Long> available, Map<String, Long> active, int claims) {
+        Map<String, Long> claimed = new HashMap<>();
+        for (int i = 0; i < claims; i++) {
+            List<String> sources = scheduler.nextSources(available, active);
+            if (sources.isEmpty()) {
+                break;
+            }
+            String source = sources.get(0);
+            scheduler.claimed(source, 1);
+            available.merge(source, -1L, Long::sum);
+            active.merge(source, 1L, Long::sum);
+            claimed.merge(source, 1L, Long::sum);
+        }
+        return claimed;
+    }
+
+    private static JobScheduler scheduler(JobSourceConfiguration... sources) {
+        return new JobScheduler(null, null, List.of(sources), true);
+    }
+
+    private static JobSourceConfiguration source(String name, int weight, Integer maxActive) {
+        JobSourceConfiguration source = new JobSourceConfiguration(name);
+        source.setWeight(weight);
+        source.setMaxActive(maxActive);
+        return source;
+    }
+}
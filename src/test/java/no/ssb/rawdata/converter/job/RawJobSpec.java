@@ -0,0 +1,69 @@
+package no.ssb.rawdata.converter.job;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.huxhorn.sulky.ulid.ULID;
+import org.junit.jupiter.api.Test;
+
+import java.util.StringJoiner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RawJobSpec {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void thatRawJobIsWrittenLikeMappedJob() throws Exception {
+        RawJob rawJob = new RawJob(new ULID().nextULID(), Job.Status.ACTIVE, "freg", document(3));
+
+        String raw = objectMapper.writeValueAsString(rawJob);
+        String mapped = objectMapper.writeValueAsString(rawJob.toJob(objectMapper));
+
+        assertThat(objectMapper.readTree(raw)).isEqualTo(objectMapper.readTree(mapped));
+    }
+
+    @Test
+    void thatPseudoConfigIsAddedToDocument() throws Exception {
+        String pseudoConfig = """
+                {"debug": false, "rules": [{"name": "rule-0", "pattern": "**/field0", "func": "fpe-fnr(secret1)"}]}""";
+        RawJob rawJob = new RawJob(new ULID().nextULID(), Job.Status.ACTIVE, "freg", """
+                {"storageRoot": "gs://bucket", "topic": "data"}
+                """);
+
+        Job job = rawJob.withPseudoConfig(pseudoConfig).toJob(objectMapper);
+
+        assertThat(job.getDocument().getTopic()).isEqualTo("data");
+        assertThat(job.getDocument().getPseudoConfig().getRules()).extracting(Job.PseudoFuncRule::getName).containsExactly("rule-0");
+        assertThat(new RawJob(rawJob.getId(), Job.Status.ACTIVE, "freg", "{}").withPseudoConfig(pseudoConfig).toJob(objectMapper)
+                .getDocument().getPseudoConfig().getRules()).hasSize(1);
+    }
+
+    @Test
+    void thatDocumentIsPassedThroughAsIs() throws Exception {
+        String document = document(2);
+        RawJob rawJob = new RawJob(new ULID().nextULID(), Job.Status.ACTIVE, "freg", document);
+
+        String raw = objectMapper.writeValueAsString(rawJob);
+
+        assertThat(raw).contains("\"document\":" + document);
+        assertThat(objectMapper.readTree(raw).get("document")).isEqualTo(objectMapper.readTree(document));
+    }
+
+    private static String document(int ruleCount) {
+        StringJoiner rules = new StringJoiner(",");
+        for (int i = 0; i < ruleCount; i++) {
+            rules.add("""
+                    {"name": "rule-%d", "pattern": "**/field%d", "func": "fpe-fnr(secret1)"}""".formatted(i, i));
+        }
+        return """
+                {
+                  "storageRoot": "gs://bucket",
+                  "storagePath": "/tmp",
+                  "storageVersion": 42,
+                  "topic": "data",
+                  "initialPosition": "LAST",
+                  "pseudoConfig": {"debug": false, "rules": [%s]}
+                }
+                """.formatted(rules);
+    }
+}
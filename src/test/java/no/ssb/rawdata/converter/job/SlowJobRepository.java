@@ -0,0 +1,45 @@
+package no.ssb.rawdata.converter.job;
+
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+import io.micronaut.context.event.BeanCreatedEvent;
+import io.micronaut.context.event.BeanCreatedEventListener;
+
+import javax.inject.Singleton;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+
+/**
+ * Makes claims for the source slow-repository.source (default "slow") take slow-repository.claim-delay (default 2s)
+ * longer, as if the database was overloaded, by decorating the job repository when it's created. Every other call goes
+ * straight to the repository. Enabled by the slow-repository environment.
+ */
+@Singleton
+@Requires(env = "slow-repository")
+class SlowJobRepository implements BeanCreatedEventListener<JobRepository> {
+
+    private final String source;
+    private final Duration claimDelay;
+
+    SlowJobRepository(@Value("${slow-repository.source:slow}") String source,
+                      @Value("${slow-repository.claim-delay:2s}") Duration claimDelay) {
+        this.source = source;
+        this.claimDelay = claimDelay;
+    }
+
+    @Override
+    public JobRepository onCreated(BeanCreatedEvent<JobRepository> event) {
+        JobRepository repository = event.getBean();
+        return (JobRepository) Proxy.newProxyInstance(JobRepository.class.getClassLoader(), new Class<?>[]{JobRepository.class}, (proxy, method, args) -> {
+            if (method.getName().equals("findAvailableRawJobs") && source.equals(args[0])) {
+                Thread.sleep(claimDelay.toMillis());
+            }
+            try {
+                return method.invoke(repository, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+}